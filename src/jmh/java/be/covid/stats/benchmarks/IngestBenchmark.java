@@ -0,0 +1,77 @@
+package be.covid.stats.benchmarks;
+
+import be.covid.stats.services.CasesIndex;
+import be.covid.stats.services.CasesParser;
+import be.covid.stats.services.NameDictionary;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Parses and indexes generated MUNI files, record by record and aggregated in parallel chunks.
+ * The compressed files are the ones the SciensanoClient stores, they take the pipelined path of the parser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class IngestBenchmark {
+    private final CasesParser parser = new CasesParser("DATE", "CASES", "TX_DESCR_NL", "TX_DESCR_FR", "NIS5");
+
+    @Param({"1", "10", "100"})
+    private int scale;
+
+    @Param({"false", "true"})
+    private boolean compressed;
+
+    private Path dir;
+    private File municipalities;
+
+    @Setup
+    public void generate() throws IOException {
+        dir = Files.createTempDirectory("ingest-benchmark");
+        Path plain = dir.resolve("COVID19BE_CASES_MUNI.json");
+        SciensanoDataGenerator.writeMunicipalities(plain, scale, 42);
+        if (!compressed) {
+            municipalities = plain.toFile();
+            return;
+        }
+        municipalities = dir.resolve("COVID19BE_CASES_MUNI.json.gz").toFile();
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(municipalities.toPath()), 1 << 16)) {
+            Files.copy(plain, out);
+        }
+        Files.delete(plain);
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        Files.deleteIfExists(municipalities.toPath());
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public CasesIndex sequential() throws IOException {
+        CasesIndex.Builder builder = CasesIndex.builder();
+        parser.parse(municipalities, dictionaries(builder), (day, regions, cases) -> builder.add(regions[0], day, cases));
+        return builder.build();
+    }
+
+    @Benchmark
+    public CasesIndex parallel() throws IOException {
+        CasesIndex.Builder builder = CasesIndex.builder();
+        parser.aggregate(municipalities, ForkJoinPool.commonPool(), dictionaries(builder), (regions, firstDay, cases) -> builder.add(regions[0], firstDay, cases));
+        return builder.build();
+    }
+
+    private static NameDictionary[] dictionaries(CasesIndex.Builder builder) {
+        return new NameDictionary[]{builder.regions(), builder.aliases(), builder.aliases()};
+    }
+}
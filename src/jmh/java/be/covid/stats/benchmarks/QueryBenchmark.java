@@ -0,0 +1,126 @@
+package be.covid.stats.benchmarks;
+
+import be.covid.stats.controllers.ResponseCache;
+import be.covid.stats.data.CasesMatrixDTO;
+import be.covid.stats.data.CasesPerDayDTO;
+import be.covid.stats.data.DateRange;
+import be.covid.stats.services.CachedStatsService;
+import be.covid.stats.services.SciensanoClient;
+import be.covid.stats.services.SnapshotStore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Request paths on a service that ingested generated files, served by a local HTTP server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QueryBenchmark {
+    private static final String[] FILES = {"COVID19BE_CASES_AGESEX.json", "COVID19BE_CASES_MUNI.json"};
+
+    @Param({"1", "10"})
+    private int scale;
+
+    private Path dir;
+    private HttpServer server;
+    private CachedStatsService service;
+    private ResponseCache responseCache;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private DateRange lastTwoWeeks;
+    private String municipality;
+
+    @Setup
+    public void ingest() throws IOException {
+        dir = Files.createTempDirectory("query-benchmark");
+        SciensanoDataGenerator.writeAgeSex(dir.resolve(FILES[0]), scale, 42);
+        SciensanoDataGenerator.writeMunicipalities(dir.resolve(FILES[1]), scale, 42);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/Data/", exchange -> {
+            Path file = dir.resolve(exchange.getRequestURI().getPath().substring("/Data/".length()));
+            exchange.sendResponseHeaders(200, Files.size(file));
+            try (OutputStream out = exchange.getResponseBody()) {
+                Files.copy(file, out);
+            }
+        });
+        server.start();
+
+        String baseUrl = "http://localhost:" + server.getAddress().getPort() + "/Data";
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        service = new CachedStatsService(new SciensanoClient(WebClient.builder(), meterRegistry, Schedulers.boundedElastic(), baseUrl),
+                new SnapshotStore(null, false), meterRegistry, Schedulers.boundedElastic());
+        service.refresh();
+        responseCache = new ResponseCache(service, objectMapper, meterRegistry, Duration.ofMinutes(5), 8, Duration.ofSeconds(5),
+                DataSize.ofMegabytes(64), DataSize.ofMegabytes(1));
+        lastTwoWeeks = new DateRange(SciensanoDataGenerator.lastDay(scale).minusDays(13), SciensanoDataGenerator.lastDay(scale));
+        municipality = SciensanoDataGenerator.municipality(123);
+    }
+
+    @TearDown
+    public void stop() throws IOException {
+        server.stop(0);
+        for (String file : FILES) Files.deleteIfExists(dir.resolve(file));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public List<String> searchMunicipalities() {
+        return service.getMunicipalities("ente 12", 10).collectList().block();
+    }
+
+    // How the autocomplete used to filter: lower casing every name for every query
+    @Benchmark
+    public List<String> scanMunicipalities() {
+        String q = "ente 12";
+        return service.getSnapshot().getMunicipalities().getRegions().stream()
+                .filter(name -> name.toLowerCase().contains(q.toLowerCase()))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<CasesPerDayDTO> casesPerDay() {
+        return service.getCasesPerDay(lastTwoWeeks, 1).collectList().block();
+    }
+
+    @Benchmark
+    public List<CasesPerDayDTO> casesPerDayForMunicipality() {
+        return service.getCasesPerDayForMunicipality(lastTwoWeeks, 7, municipality).collectList().block();
+    }
+
+    @Benchmark
+    public CasesMatrixDTO allMunicipalities() {
+        return service.getCasesPerDayForMunicipalities(lastTwoWeeks, 1, List.of("*")).block();
+    }
+
+    // Assembling and serializing the series on every request
+    @Benchmark
+    public byte[] serializedCasesPerDay() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(service.getCasesPerDay(lastTwoWeeks, 1).collectList().block());
+    }
+
+    @Benchmark
+    public ResponseEntity<Object> renderedCasesPerDay() {
+        return responseCache.json("day", () -> service.getCasesPerDay(lastTwoWeeks, 1).collectList()).block();
+    }
+}
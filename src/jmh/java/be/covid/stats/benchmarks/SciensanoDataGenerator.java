@@ -0,0 +1,96 @@
+package be.covid.stats.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Writes Sciensano shaped AGE_SEX and MUNI files with the same fields, value formats and number of
+ * provinces, age groups and municipalities as the real ones. Scale 1 is {@link #BASE_DAYS} days,
+ * every scale multiplies the days. The same seed always gives the same files.
+ */
+public final class SciensanoDataGenerator {
+    public static final LocalDate FIRST_DAY = LocalDate.of(2020, 3, 1);
+    public static final int BASE_DAYS = 30;
+    public static final int MUNICIPALITIES = 581;
+
+    private static final String[][] PROVINCES = {
+            {"Antwerpen", "Flanders"}, {"BrabantWallon", "Wallonia"}, {"Brussels", "Brussels"}, {"Hainaut", "Wallonia"},
+            {"Liège", "Wallonia"}, {"Limburg", "Flanders"}, {"Luxembourg", "Wallonia"}, {"Namur", "Wallonia"},
+            {"OostVlaanderen", "Flanders"}, {"VlaamsBrabant", "Flanders"}, {"WestVlaanderen", "Flanders"}};
+    private static final String[] AGE_GROUPS = {"0-9", "10-19", "20-29", "30-39", "40-49", "50-59", "60-69", "70-79", "80-89", "90+"};
+    private static final String[] SEXES = {"M", "F"};
+
+    private SciensanoDataGenerator() {
+    }
+
+    public static int days(int scale) {
+        return BASE_DAYS * scale;
+    }
+
+    /**
+     * @return the last day in the files of the scale
+     */
+    public static LocalDate lastDay(int scale) {
+        return FIRST_DAY.plusDays(days(scale) - 1);
+    }
+
+    public static String municipality(int i) {
+        return String.format("Gemeente %03d", i);
+    }
+
+    public static void writeAgeSex(Path file, int scale, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (Writer out = writer(file)) {
+            out.write("[\n");
+            boolean first = true;
+            for (int day = 0; day < days(scale); day++) {
+                String date = FIRST_DAY.plusDays(day).toString();
+                for (String[] province : PROVINCES) {
+                    for (String ageGroup : AGE_GROUPS) {
+                        for (String sex : SEXES) {
+                            if (!first) out.write(",\n");
+                            first = false;
+                            out.write("{\"DATE\":\"" + date + "\",\"PROVINCE\":\"" + province[0] + "\",\"REGION\":\"" + province[1]
+                                    + "\",\"AGEGROUP\":\"" + ageGroup + "\",\"SEX\":\"" + sex + "\",\"CASES\":" + random.nextInt(40) + "}");
+                        }
+                    }
+                }
+            }
+            out.write("\n]\n");
+        }
+    }
+
+    public static void writeMunicipalities(Path file, int scale, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (Writer out = writer(file)) {
+            out.write("[\n");
+            boolean first = true;
+            for (int day = 0; day < days(scale); day++) {
+                String date = FIRST_DAY.plusDays(day).toString();
+                for (int i = 0; i < MUNICIPALITIES; i++) {
+                    String[] province = PROVINCES[i % PROVINCES.length];
+                    int cases = random.nextInt(30);
+                    if (!first) out.write(",\n");
+                    first = false;
+                    out.write("{\"NIS5\":\"" + (10000 + i) + "\",\"DATE\":\"" + date + "\",\"TX_DESCR_NL\":\"" + municipality(i)
+                            + "\",\"TX_DESCR_FR\":\"" + String.format("Commune %03d", i)
+                            + "\",\"TX_ADM_DSTR_DESCR_NL\":\"Arrondissement " + province[0]
+                            + "\",\"TX_ADM_DSTR_DESCR_FR\":\"Arrondissement de " + province[0]
+                            + "\",\"PROVINCE\":\"" + province[0] + "\",\"REGION\":\"" + province[1]
+                            + "\",\"CASES\":\"" + (cases < 5 ? "<5" : String.valueOf(cases)) + "\"}");
+                }
+            }
+            out.write("\n]\n");
+        }
+    }
+
+    private static Writer writer(Path file) throws IOException {
+        return new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16);
+    }
+}
@@ -0,0 +1,37 @@
+package be.covid.stats.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class IngestConfig {
+    private static final Logger log = LoggerFactory.getLogger(IngestConfig.class);
+
+    /**
+     * The scheduler of the blocking ingest work: writing downloads, parsing files and storing snapshots.
+     * A virtual thread per task on Java 21, so blocking never holds a platform thread, a bounded elastic
+     * pool of its own otherwise. The virtual thread executor is looked up at runtime, the Java 17 build
+     * has no reference to it.
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler ingestScheduler(@Value("${stats.ingest.virtual-threads:false}") boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                log.info("Ingesting on virtual threads");
+                return Schedulers.fromExecutorService(executor, "ingest");
+            } catch (ReflectiveOperationException e) {
+                log.warn("Virtual threads are not available on Java " + Runtime.version() + ", ingesting on a bounded elastic scheduler");
+            }
+        }
+        return Schedulers.newBoundedElastic(Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE, Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "ingest");
+    }
+}
@@ -1,13 +1,21 @@
 package be.covid.stats.controllers;
 
 import be.covid.stats.services.CachedStatsService;
+import be.covid.stats.services.Dataset;
+import be.covid.stats.services.Datasets;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/data")
@@ -20,12 +28,60 @@ public class DataController {
     }
 
     @GetMapping("/provinces")
-    private Mono<List<String>> getProvinces(@RequestParam(required = false) String q) {
-        return Mono.from(cachedStatsService.getProvinces(q).collectList());
+    private Mono<List<String>> getProvinces(@RequestParam(required = false) String q,
+                                            @RequestParam(defaultValue = "" + Integer.MAX_VALUE) int limit) {
+        return Mono.from(cachedStatsService.getProvinces(q, checkLimit(limit)).collectList());
+    }
+
+    //Streaming variant, one name per line or event instead of a JSON array that has to be collected first
+    @GetMapping(path = "/provinces", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    private Flux<String> streamProvinces(@RequestParam(required = false) String q,
+                                         @RequestParam(defaultValue = "" + Integer.MAX_VALUE) int limit) {
+        return cachedStatsService.getProvinces(q, checkLimit(limit));
+    }
+
+    @GetMapping("/values/{dimension}")
+    private Mono<List<String>> getValues(@PathVariable String dimension) {
+        return Mono.from(cachedStatsService.getValues(StatsController.dimension(dimension)).collectList());
+    }
+
+    @GetMapping("/datasets")
+    private Mono<List<String>> getDatasets() {
+        return Mono.just(Datasets.ALL.stream().map(Dataset::getKey).collect(Collectors.toList()));
+    }
+
+    @GetMapping("/datasets/{dataset}/regions")
+    private Mono<List<String>> getRegions(@PathVariable String dataset) {
+        return Mono.from(cachedStatsService.getRegions(StatsController.dataset(dataset)).collectList());
+    }
+
+    @GetMapping("/datasets/{dataset}/levels")
+    private Mono<List<String>> getLevels(@PathVariable String dataset) {
+        return Mono.just(StatsController.dataset(dataset).levelKeys());
+    }
+
+    @GetMapping("/datasets/{dataset}/levels/{level}/regions")
+    private Mono<List<String>> getLevelRegions(@PathVariable String dataset, @PathVariable String level) {
+        Dataset checkedDataset = StatsController.dataset(dataset);
+        return Mono.from(cachedStatsService.getRegions(checkedDataset, StatsController.level(checkedDataset, level)).collectList());
     }
 
     @GetMapping("/municipalities")
-    private Mono<List<String>> getMunicipalities(@RequestParam(required = false) String q) {
-        return Mono.from(cachedStatsService.getMunicipalities(q).collectList());
+    private Mono<List<String>> getMunicipalities(@RequestParam(required = false) String q,
+                                                 @RequestParam(defaultValue = "" + Integer.MAX_VALUE) int limit) {
+        return Mono.from(cachedStatsService.getMunicipalities(q, checkLimit(limit)).collectList());
+    }
+
+    @GetMapping(path = "/municipalities", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    private Flux<String> streamMunicipalities(@RequestParam(required = false) String q,
+                                              @RequestParam(defaultValue = "" + Integer.MAX_VALUE) int limit) {
+        return cachedStatsService.getMunicipalities(q, checkLimit(limit));
+    }
+
+    private static int checkLimit(int limit) {
+        if (limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid limit");
+        }
+        return limit;
     }
 }
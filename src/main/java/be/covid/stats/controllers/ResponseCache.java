@@ -0,0 +1,158 @@
+package be.covid.stats.controllers;
+
+import be.covid.stats.services.CachedStatsService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.cache2k.Cache;
+import org.cache2k.Cache2kBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * JSON responses rendered once per snapshot. The bytes are wrapped in a new {@link DataBuffer}
+ * for every response, not copied, and carry a strong ETag of their content: Spring answers a
+ * request with a matching If-None-Match with a 304 without a body.
+ * Entries are weighed by their bytes, responses above a maximum size are not kept at all.
+ * Concurrent misses of the same response share one render. Renders of different responses are bounded,
+ * a miss beyond the bound gets a 503 with a Retry-After instead of queueing behind the others.
+ */
+@Component
+public class ResponseCache {
+    private final CachedStatsService cachedStatsService;
+    private final ObjectMapper objectMapper;
+    private final CacheControl cacheControl;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter bypassed;
+    private final Timer renderTimer;
+    private final Counter rejected;
+    private final Semaphore renders;
+    private final String retryAfter;
+    private final long maxEntrySize;
+    private final Map<String, Mono<Rendered>> inFlight = new ConcurrentHashMap<>();
+    // Keys start with the snapshot version, entries of older snapshots are never hit again and get evicted
+    private final Cache<String, Rendered> rendered;
+
+    public ResponseCache(CachedStatsService cachedStatsService, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                         @Value("${stats.http.max-age}") Duration maxAge,
+                         @Value("${stats.http.max-renders}") int maxRenders,
+                         @Value("${stats.http.retry-after}") Duration retryAfter,
+                         @Value("${stats.http.cache-size}") DataSize cacheSize,
+                         @Value("${stats.http.cache-max-entry}") DataSize maxEntrySize) {
+        this.cachedStatsService = cachedStatsService;
+        this.objectMapper = objectMapper;
+        this.cacheControl = CacheControl.maxAge(maxAge).cachePublic();
+        this.hits = meterRegistry.counter("stats.response.cache", "result", "hit");
+        this.misses = meterRegistry.counter("stats.response.cache", "result", "miss");
+        // Rendered, but too large to keep
+        this.bypassed = meterRegistry.counter("stats.response.cache", "result", "bypass");
+        // Computing and serializing a response on a miss
+        this.renderTimer = meterRegistry.timer("stats.response.render");
+        this.rejected = meterRegistry.counter("stats.http.rejected", "reason", "overloaded");
+        this.renders = new Semaphore(maxRenders);
+        this.retryAfter = String.valueOf(retryAfter.getSeconds());
+        this.maxEntrySize = maxEntrySize.toBytes();
+        this.rendered = Cache2kBuilder.of(String.class, Rendered.class)
+                .maximumWeight(cacheSize.toBytes())
+                .weigher((String key, Rendered value) -> value.bytes.length + 2 * key.length())
+                .expireAfterWrite(1, TimeUnit.HOURS)
+                .permitNullValues(false)
+                .build();
+    }
+
+    /**
+     * @param key  identifies the response within a snapshot, e.g. the path and the resolved parameters
+     * @param body computes the response when it is not rendered yet
+     * @return a response with a {@link DataBuffer} body, typed as Object so handlers can also return streaming bodies
+     */
+    public Mono<ResponseEntity<Object>> json(String key, Supplier<Mono<?>> body) {
+        String versionedKey = cachedStatsService.getSnapshot().getVersion() + " " + key;
+        Rendered cached = rendered.peek(versionedKey);
+        Mono<Rendered> response;
+        if (cached != null) {
+            hits.increment();
+            response = Mono.just(cached);
+        } else {
+            misses.increment();
+            response = inFlight.computeIfAbsent(versionedKey, k -> render(versionedKey, body));
+        }
+        return response
+                .map(value -> ResponseEntity.ok()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .eTag(value.etag)
+                        .cacheControl(cacheControl)
+                        .body((Object) DefaultDataBufferFactory.sharedInstance.wrap(value.bytes)))
+                .onErrorResume(Overloaded.class, e -> Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, retryAfter)
+                        .<Object>build()));
+    }
+
+    // Cached, so every request that finds it in flight gets the same result. It leaves the in flight map once done.
+    private Mono<Rendered> render(String versionedKey, Supplier<Mono<?>> body) {
+        return Mono.defer(() -> {
+                    if (!renders.tryAcquire()) {
+                        rejected.increment();
+                        return Mono.<Rendered>error(new Overloaded());
+                    }
+                    Timer.Sample sample = Timer.start();
+                    // Deferred, so a body that throws instead of returning an error releases the permit as well
+                    return Mono.<Object>defer(body::get).map(this::render)
+                            .doOnNext(value -> {
+                                sample.stop(renderTimer);
+                                if (value.bytes.length <= maxEntrySize) {
+                                    rendered.put(versionedKey, value);
+                                } else {
+                                    bypassed.increment();
+                                }
+                            })
+                            .doFinally(signal -> renders.release());
+                })
+                .doFinally(signal -> inFlight.remove(versionedKey))
+                .cache();
+    }
+
+    private Rendered render(Object value) {
+        try {
+            byte[] bytes = objectMapper.writeValueAsBytes(value);
+            return new Rendered(bytes, "\"" + DigestUtils.md5DigestAsHex(bytes) + "\"");
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not render response", e);
+        }
+    }
+
+    private static class Overloaded extends RuntimeException {
+        private Overloaded() {
+            super("Too many responses are rendered", null, false, false);
+        }
+    }
+
+    private static class Rendered {
+        private final byte[] bytes;
+        private final String etag;
+
+        private Rendered(byte[] bytes, String etag) {
+            this.bytes = bytes;
+            this.etag = etag;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package be.covid.stats.controllers;
+
+import be.covid.stats.services.CachedStatsService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Until the first snapshot is published, after a start without a stored one, API requests get a 503 with a
+ * Retry-After instead of empty results that would be rendered and cached by clients. The live channel stays
+ * open, it pushes the first snapshot once it is there.
+ */
+@Component
+public class SnapshotAdmissionFilter implements WebFilter {
+    private final CachedStatsService cachedStatsService;
+    private final String retryAfter;
+    private final Counter rejected;
+
+    public SnapshotAdmissionFilter(CachedStatsService cachedStatsService, MeterRegistry meterRegistry,
+                                   @Value("${stats.http.retry-after}") Duration retryAfter) {
+        this.cachedStatsService = cachedStatsService;
+        this.retryAfter = String.valueOf(retryAfter.getSeconds());
+        this.rejected = meterRegistry.counter("stats.http.rejected", "reason", "no_snapshot");
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String path = exchange.getRequest().getPath().pathWithinApplication().value();
+        if (!cachedStatsService.getSnapshot().isEmpty() || !path.startsWith("/api/") || path.equals("/api/stats/live")) {
+            return chain.filter(exchange);
+        }
+        rejected.increment();
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, retryAfter);
+        return response.setComplete();
+    }
+}
@@ -1,35 +1,365 @@
 package be.covid.stats.controllers;
 
+import be.covid.stats.data.CasesGroupDTO;
 import be.covid.stats.data.CasesPerDayDTO;
+import be.covid.stats.data.CasesTotalDTO;
+import be.covid.stats.data.DateRange;
 import be.covid.stats.services.CachedStatsService;
-import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import be.covid.stats.services.CasesCube;
+import be.covid.stats.services.Dataset;
+import be.covid.stats.services.Datasets;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/api/stats")
 public class StatsController {
+    private static final int MAX_WINDOW = 366;
+    // Room for every municipality over the longest date range
+    private static final int MAX_MATRIX_CELLS = 600 * (DateRange.MAX_DAYS + 1);
+    // Proxies close idle connections, a comment keeps the live channel open
+    private static final Duration KEEP_ALIVE = Duration.ofSeconds(30);
 
     private final CachedStatsService cachedStatsService;
+    private final ResponseCache responseCache;
 
-    public StatsController(CachedStatsService cachedStatsService) {
+    public StatsController(CachedStatsService cachedStatsService, ResponseCache responseCache) {
         this.cachedStatsService = cachedStatsService;
+        this.responseCache = responseCache;
+    }
+
+    @GetMapping(path = "/day", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    private Mono<ResponseEntity<Object>> getAllCases(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                     @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                     @RequestParam(defaultValue = "14") int days,
+                                                     @RequestParam(defaultValue = "1") int window,
+                                                     ServerWebExchange exchange) {
+        DateRange range = range(from, to, days);
+        int checkedWindow = checkWindow(window);
+        return series(exchange, key("day", range, checkedWindow), () -> cachedStatsService.getCasesPerDay(range, checkedWindow));
+    }
+
+    @GetMapping(path = "/day/municipalities/{m}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    private Mono<ResponseEntity<Object>> getAllCasesPerDayForMunicipality(@PathVariable String m,
+                                                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                                          @RequestParam(defaultValue = "14") int days,
+                                                                          @RequestParam(defaultValue = "1") int window,
+                                                                          ServerWebExchange exchange) {
+        DateRange range = range(from, to, days);
+        int checkedWindow = checkWindow(window);
+        String checkedRegion = cachedStatsService.resolveMunicipality(m);
+        return series(exchange, key("day/municipalities/" + checkedRegion, range, checkedWindow),
+                () -> cachedStatsService.getCasesPerDayForMunicipality(range, checkedWindow, checkedRegion));
+    }
+
+    @GetMapping(path = "/day/provinces/{m}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    private Mono<ResponseEntity<Object>> getAllCasesPerDayForProvince(@PathVariable String m,
+                                                                      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                                      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                                      @RequestParam(defaultValue = "14") int days,
+                                                                      @RequestParam(defaultValue = "1") int window,
+                                                                      ServerWebExchange exchange) {
+        DateRange range = range(from, to, days);
+        int checkedWindow = checkWindow(window);
+        String checkedRegion = cachedStatsService.resolveProvince(m);
+        return series(exchange, key("day/provinces/" + checkedRegion, range, checkedWindow),
+                () -> cachedStatsService.getCasesPerDayForProvince(range, checkedWindow, checkedRegion));
+    }
+
+    /**
+     * All requested municipalities in one response, e.g. ?regions=Gent,Brugge or ?regions=* for all of them
+     */
+    @GetMapping("/day/municipalities")
+    private Mono<ResponseEntity<Object>> getCasesPerDayForMunicipalities(@RequestParam(defaultValue = "*") List<String> regions,
+                                                                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                                         @RequestParam(defaultValue = "14") int days,
+                                                                         @RequestParam(defaultValue = "1") int window) {
+        DateRange range = range(from, to, days);
+        int checkedWindow = checkWindow(window);
+        List<String> checkedRegions = cachedStatsService.resolveMunicipalities(checkRegions(regions, range));
+        return responseCache.json(key("day/municipalities?" + String.join(",", checkedRegions), range, checkedWindow),
+                () -> cachedStatsService.getCasesPerDayForMunicipalities(range, checkedWindow, checkedRegions));
+    }
+
+    @GetMapping("/day/provinces")
+    private Mono<ResponseEntity<Object>> getCasesPerDayForProvinces(@RequestParam(defaultValue = "*") List<String> regions,
+                                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                                    @RequestParam(defaultValue = "14") int days,
+                                                                    @RequestParam(defaultValue = "1") int window) {
+        DateRange range = range(from, to, days);
+        int checkedWindow = checkWindow(window);
+        List<String> checkedRegions = cachedStatsService.resolveProvinces(checkRegions(regions, range));
+        return responseCache.json(key("day/provinces?" + String.join(",", checkedRegions), range, checkedWindow),
+                () -> cachedStatsService.getCasesPerDayForProvinces(range, checkedWindow, checkedRegions));
+    }
+
+    /**
+     * The cases per day with the 7 day average, the 14 day incidence per 100k, the week over week growth
+     * and the share of positive tests of the last 7 days
+     */
+    @GetMapping(path = "/metrics", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    private Mono<ResponseEntity<Object>> getMetrics(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                    @RequestParam(defaultValue = "14") int days,
+                                                    ServerWebExchange exchange) {
+        DateRange range = range(from, to, days);
+        return series(exchange, key("metrics", range, 1), () -> cachedStatsService.getMetrics(range));
+    }
+
+    @GetMapping(path = "/metrics/provinces/{m}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    private Mono<ResponseEntity<Object>> getMetricsForProvince(@PathVariable String m,
+                                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                               @RequestParam(defaultValue = "14") int days,
+                                                               ServerWebExchange exchange) {
+        DateRange range = range(from, to, days);
+        String checkedRegion = cachedStatsService.resolveProvince(m);
+        return series(exchange, key("metrics/provinces/" + checkedRegion, range, 1),
+                () -> cachedStatsService.getMetricsForProvince(range, checkedRegion));
+    }
+
+    @GetMapping("/total")
+    private Mono<CasesTotalDTO> getTotal(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                         @RequestParam(defaultValue = "14") int days) {
+        return cachedStatsService.getTotal(range(from, to, days));
+    }
+
+    @GetMapping("/total/municipalities/{m}")
+    private Mono<CasesTotalDTO> getTotalForMunicipality(@PathVariable String m,
+                                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                        @RequestParam(defaultValue = "14") int days) {
+        return cachedStatsService.getTotalForMunicipality(range(from, to, days), m);
+    }
+
+    @GetMapping("/total/provinces/{m}")
+    private Mono<CasesTotalDTO> getTotalForProvince(@PathVariable String m,
+                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                    @RequestParam(defaultValue = "14") int days) {
+        return cachedStatsService.getTotalForProvince(range(from, to, days), m);
+    }
+
+    @GetMapping(path = "/day/cube", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    private Flux<CasesPerDayDTO> getCasesPerDayFiltered(@RequestParam(required = false) String province,
+                                                        @RequestParam(required = false) String region,
+                                                        @RequestParam(required = false) String ageGroup,
+                                                        @RequestParam(required = false) String sex,
+                                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                        @RequestParam(defaultValue = "14") int days,
+                                                        @RequestParam(defaultValue = "1") int window) {
+        return cachedStatsService.getCasesPerDay(range(from, to, days), checkWindow(window), filter(province, region, ageGroup, sex));
+    }
+
+    @GetMapping("/total/cube")
+    private Mono<CasesTotalDTO> getTotalFiltered(@RequestParam(required = false) String province,
+                                                 @RequestParam(required = false) String region,
+                                                 @RequestParam(required = false) String ageGroup,
+                                                 @RequestParam(required = false) String sex,
+                                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                 @RequestParam(defaultValue = "14") int days) {
+        return cachedStatsService.getTotal(range(from, to, days), filter(province, region, ageGroup, sex));
+    }
+
+    @GetMapping(path = "/total/by/{dimension}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    private Flux<CasesGroupDTO> getTotalsGroupedBy(@PathVariable String dimension,
+                                                   @RequestParam(required = false) String province,
+                                                   @RequestParam(required = false) String region,
+                                                   @RequestParam(required = false) String ageGroup,
+                                                   @RequestParam(required = false) String sex,
+                                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                   @RequestParam(defaultValue = "14") int days) {
+        return cachedStatsService.getTotalsGroupedBy(range(from, to, days), dimension(dimension), filter(province, region, ageGroup, sex));
+    }
+
+    /**
+     * The daily values of any ingested dataset, e.g. /datasets/hosp/day or /datasets/tests-positive/day
+     */
+    @GetMapping(path = "/datasets/{dataset}/day", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    private Mono<ResponseEntity<Object>> getPerDay(@PathVariable String dataset,
+                                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                   @RequestParam(defaultValue = "14") int days,
+                                                   @RequestParam(defaultValue = "1") int window,
+                                                   ServerWebExchange exchange) {
+        Dataset checkedDataset = dataset(dataset);
+        DateRange range = range(from, to, days);
+        int checkedWindow = checkWindow(window);
+        return series(exchange, key("datasets/" + checkedDataset.getKey() + "/day", range, checkedWindow),
+                () -> cachedStatsService.getPerDay(checkedDataset, range, checkedWindow));
+    }
+
+    @GetMapping(path = "/datasets/{dataset}/day/{r}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    private Mono<ResponseEntity<Object>> getPerDayForRegion(@PathVariable String dataset,
+                                                            @PathVariable String r,
+                                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                            @RequestParam(defaultValue = "14") int days,
+                                                            @RequestParam(defaultValue = "1") int window,
+                                                            ServerWebExchange exchange) {
+        Dataset checkedDataset = dataset(dataset);
+        DateRange range = range(from, to, days);
+        int checkedWindow = checkWindow(window);
+        String checkedRegion = cachedStatsService.resolveRegion(checkedDataset, r);
+        return series(exchange, key("datasets/" + checkedDataset.getKey() + "/day/" + checkedRegion, range, checkedWindow),
+                () -> cachedStatsService.getPerDayForRegion(checkedDataset, range, checkedWindow, checkedRegion));
+    }
+
+    @GetMapping("/datasets/{dataset}/total")
+    private Mono<CasesTotalDTO> getDatasetTotal(@PathVariable String dataset,
+                                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                @RequestParam(defaultValue = "14") int days) {
+        return cachedStatsService.getTotal(dataset(dataset), range(from, to, days));
+    }
+
+    /**
+     * The daily values of a region at a level of the hierarchy of a dataset,
+     * e.g. /datasets/date_muni/levels/arrondissements/day/Arrondissement Gent
+     */
+    @GetMapping(path = "/datasets/{dataset}/levels/{level}/day/{r}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    private Mono<ResponseEntity<Object>> getPerDayForLevel(@PathVariable String dataset,
+                                                           @PathVariable String level,
+                                                           @PathVariable String r,
+                                                           @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                           @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                           @RequestParam(defaultValue = "14") int days,
+                                                           @RequestParam(defaultValue = "1") int window,
+                                                           ServerWebExchange exchange) {
+        Dataset checkedDataset = dataset(dataset);
+        String checkedLevel = level(checkedDataset, level);
+        DateRange range = range(from, to, days);
+        int checkedWindow = checkWindow(window);
+        String checkedRegion = cachedStatsService.resolveRegion(checkedDataset, checkedLevel, r);
+        return series(exchange, key("datasets/" + checkedDataset.getKey() + "/levels/" + checkedLevel + "/day/" + checkedRegion, range, checkedWindow),
+                () -> cachedStatsService.getPerDayForRegion(checkedDataset, checkedLevel, range, checkedWindow, checkedRegion));
+    }
+
+    /**
+     * All requested regions of a level in one response, e.g. /datasets/date_muni/levels/provinces/day?regions=*
+     */
+    @GetMapping("/datasets/{dataset}/levels/{level}/day")
+    private Mono<ResponseEntity<Object>> getPerDayForLevelRegions(@PathVariable String dataset,
+                                                                  @PathVariable String level,
+                                                                  @RequestParam(defaultValue = "*") List<String> regions,
+                                                                  @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                                  @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                                  @RequestParam(defaultValue = "14") int days,
+                                                                  @RequestParam(defaultValue = "1") int window) {
+        Dataset checkedDataset = dataset(dataset);
+        String checkedLevel = level(checkedDataset, level);
+        DateRange range = range(from, to, days);
+        int checkedWindow = checkWindow(window);
+        List<String> checkedRegions = cachedStatsService.resolveRegions(checkedDataset, checkedLevel, checkRegions(regions, range));
+        return responseCache.json(key("datasets/" + checkedDataset.getKey() + "/levels/" + checkedLevel + "/day?" + String.join(",", checkedRegions), range, checkedWindow),
+                () -> cachedStatsService.getPerDayForRegions(checkedDataset, checkedLevel, range, checkedWindow, checkedRegions));
+    }
+
+    @GetMapping("/datasets/{dataset}/levels/{level}/total/{r}")
+    private Mono<CasesTotalDTO> getTotalForLevel(@PathVariable String dataset,
+                                                 @PathVariable String level,
+                                                 @PathVariable String r,
+                                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                 @RequestParam(defaultValue = "14") int days) {
+        Dataset checkedDataset = dataset(dataset);
+        return cachedStatsService.getTotalForRegion(checkedDataset, level(checkedDataset, level), range(from, to, days), r);
+    }
+
+    /**
+     * Pushes the totals of the last day every time a refresh publishes new data, starting with the current one.
+     */
+    @GetMapping(path = "/live", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    private Flux<ServerSentEvent<CasesPerDayDTO>> getLive() {
+        return Flux.merge(
+                cachedStatsService.getUpdates().map(day -> ServerSentEvent.builder(day).id(day.getDate()).event("day").build()),
+                Flux.interval(KEEP_ALIVE).map(tick -> ServerSentEvent.<CasesPerDayDTO>builder().comment("keep-alive").build()));
+    }
+
+    // JSON clients get the pre-rendered series, streaming clients the rows as they are produced
+    private Mono<ResponseEntity<Object>> series(ServerWebExchange exchange, String key, Supplier<Flux<?>> rows) {
+        boolean streaming = exchange.getRequest().getHeaders().getAccept().stream()
+                .anyMatch(type -> type.equalsTypeAndSubtype(MediaType.APPLICATION_NDJSON) || type.equalsTypeAndSubtype(MediaType.TEXT_EVENT_STREAM));
+        if (streaming) {
+            return Mono.just(ResponseEntity.ok().body(rows.get()));
+        }
+        return responseCache.json(key, () -> rows.get().collectList());
+    }
+
+    private static String key(String path, DateRange range, int window) {
+        return path + " " + range.getFrom() + " " + range.getTo() + " " + window;
+    }
+
+    static CasesCube.Dimension dimension(String name) {
+        return CasesCube.Dimension.find(name)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid dimension"));
+    }
+
+    static Dataset dataset(String key) {
+        return Datasets.find(key)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown dataset"));
+    }
+
+    static String level(Dataset dataset, String key) {
+        return dataset.findLevel(key)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown level"));
+    }
+
+    private static Map<CasesCube.Dimension, String> filter(String province, String region, String ageGroup, String sex) {
+        Map<CasesCube.Dimension, String> filter = new EnumMap<>(CasesCube.Dimension.class);
+        if (province != null) filter.put(CasesCube.Dimension.PROVINCE, province);
+        if (region != null) filter.put(CasesCube.Dimension.REGION, region);
+        if (ageGroup != null) filter.put(CasesCube.Dimension.AGE_GROUP, ageGroup);
+        if (sex != null) filter.put(CasesCube.Dimension.SEX, sex);
+        return filter;
     }
 
-    @GetMapping("/day")
-    private Flux<CasesPerDayDTO> getAllCases() {
-        return cachedStatsService.getCasesPerDay(14);
+    // The regions without duplicates, ignoring case. Every region is a row with a count per day of the range.
+    private static List<String> checkRegions(List<String> regions, DateRange range) {
+        Map<String, String> distinct = new LinkedHashMap<>();
+        for (String region : regions) distinct.putIfAbsent(region.toLowerCase(Locale.ROOT), region);
+        if ((long) distinct.size() * range.length() > MAX_MATRIX_CELLS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Too many regions for the date range");
+        }
+        return List.copyOf(distinct.values());
     }
 
-    @GetMapping("/day/municipalities/{m}")
-    private Flux<CasesPerDayDTO> getAllCasesPerDayForMunicipality(@PathVariable String m) {
-        return cachedStatsService.getCasesPerDayForMunicipality(14, m);
+    private static DateRange range(LocalDate from, LocalDate to, int days) {
+        try {
+            return DateRange.of(from, to, days);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
     }
 
-    @GetMapping("/day/provinces/{m}")
-    private Flux<CasesPerDayDTO> getAllCasesPerDayForProvince(@PathVariable String m) {
-        return cachedStatsService.getCasesPerDayForProvince(14, m);
+    private static int checkWindow(int window) {
+        if (window < 1 || window > MAX_WINDOW) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid window");
+        }
+        return window;
     }
 }
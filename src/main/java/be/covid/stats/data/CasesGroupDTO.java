@@ -0,0 +1,15 @@
+package be.covid.stats.data;
+
+import lombok.*;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Builder
+public class CasesGroupDTO {
+    String group;
+    String from;
+    String to;
+    Integer total;
+}
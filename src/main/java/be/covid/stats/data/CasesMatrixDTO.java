@@ -0,0 +1,21 @@
+package be.covid.stats.data;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Cases per day of several regions: totals[i][j] is the count of regions[i] on day j after from.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Builder
+public class CasesMatrixDTO {
+    String from;
+    String to;
+    Integer window;
+    List<String> regions;
+    int[][] totals;
+}
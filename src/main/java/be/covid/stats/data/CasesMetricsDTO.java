@@ -0,0 +1,25 @@
+package be.covid.stats.data;
+
+import lombok.*;
+
+/**
+ * The cases of a day with the metrics derived from them. A metric is null when it has no value for the day,
+ * e.g. the incidence of a region without a known population.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Builder
+public class CasesMetricsDTO {
+    String date;
+    Integer total;
+    // Average cases per day of the last 7 days
+    Float average7;
+    // Cases of the last 14 days per 100 000 inhabitants
+    Float incidence14;
+    // Relative change of the cases of the last 7 days over the 7 days before
+    Float growth7;
+    // Share of positive tests of the last 7 days
+    Float positivity7;
+}
@@ -0,0 +1,14 @@
+package be.covid.stats.data;
+
+import lombok.*;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Builder
+public class CasesTotalDTO {
+    String from;
+    String to;
+    Integer total;
+}
@@ -0,0 +1,59 @@
+package be.covid.stats.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Inclusive range of days requested by a client.
+ */
+@Getter
+@AllArgsConstructor
+public class DateRange {
+    public static final int MAX_DAYS = 3660;
+
+    private final LocalDate from;
+    private final LocalDate to;
+
+    /**
+     * Resolves the request parameters: without to, the range ends at the last complete day (2 days ago),
+     * without from, it starts days before the end.
+     *
+     * @throws IllegalArgumentException when the range is empty, longer than MAX_DAYS or has a day the indexes
+     *                                  cannot address as an int epoch day
+     */
+    public static DateRange of(LocalDate from, LocalDate to, int days) {
+        if (days < 1) throw new IllegalArgumentException("Invalid date range");
+        if (to == null) to = LocalDate.now().minusDays(2);
+        if (from == null) from = to.minusDays(days - 1);
+        if (!isEpochDay(from) || !isEpochDay(to) || from.isAfter(to) || from.plusDays(MAX_DAYS).isBefore(to)) {
+            throw new IllegalArgumentException("Invalid date range");
+        }
+        return new DateRange(from, to);
+    }
+
+    private static boolean isEpochDay(LocalDate date) {
+        long day = date.toEpochDay();
+        return day >= Integer.MIN_VALUE && day <= Integer.MAX_VALUE;
+    }
+
+    public static DateRange lastDays(int days) {
+        return of(null, null, days);
+    }
+
+    /**
+     * @return the number of days in the range
+     */
+    public int length() {
+        return (int) (to.toEpochDay() - from.toEpochDay() + 1);
+    }
+
+    public List<LocalDate> dates() {
+        return Stream.iterate(from, date -> !date.isAfter(to), date -> date.plusDays(1))
+                .collect(Collectors.toList());
+    }
+}
@@ -1,39 +1,37 @@
 package be.covid.stats.services;
 
+import be.covid.stats.data.CasesGroupDTO;
+import be.covid.stats.data.CasesMatrixDTO;
+import be.covid.stats.data.CasesMetricsDTO;
 import be.covid.stats.data.CasesPerDayDTO;
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonToken;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.jayway.jsonpath.JsonPath;
-import net.minidev.json.JSONArray;
-import org.apache.logging.log4j.util.Strings;
-import org.cache2k.Cache;
-import org.cache2k.Cache2kBuilder;
-import org.cache2k.event.CacheEntryExpiredListener;
-import org.cache2k.integration.CacheLoader;
+import be.covid.stats.data.CasesTotalDTO;
+import be.covid.stats.data.DateRange;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.MediaType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RequestCallback;
-import org.springframework.web.client.ResponseExtractor;
-import org.springframework.web.client.RestTemplate;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToIntFunction;
 
 import static be.covid.stats.utils.DateConversionUtils.JSON_DATE_FORMAT;
 import static be.covid.stats.utils.DateConversionUtils.convert;
@@ -41,339 +39,431 @@ import static be.covid.stats.utils.DateConversionUtils.convert;
 @Service
 public class CachedStatsService implements StatsService {
     private static final Logger log = LoggerFactory.getLogger(StatsService.class);
-    private static final String SCIENSANO_URL = "https://epistat.sciensano.be/Data";
-    private static final String AGE_SEX_URL = SCIENSANO_URL + "/COVID19BE_CASES_AGESEX.json";
-    private static final String DATE_MUNI = SCIENSANO_URL + "/COVID19BE_CASES_MUNI.json";
-    private static final String AGE_SEX_KEY = "AGE_SEX";
-    private static final String DATE_MUNI_KEY = "DATE_MUNI";
-    private final RestTemplate restTemplate = new RestTemplate();
-    private final Cache<String, Path> cachedResponses = Cache2kBuilder.of(String.class, Path.class)
-            .permitNullValues(false)
-            .expireAfterWrite(1, TimeUnit.HOURS)
-            .addListener((CacheEntryExpiredListener<String, Path>) (cache, entry) -> {
-                boolean deleted = entry.getValue().toFile().delete();
-                if (deleted) {
-                    log.info("Tmp file " + entry.getValue().toString() + " successfully deleted");
-                } else {
-                    log.error("Could not delete tmp file " + entry.getValue().toString());
-                }
-            })
-            .loader(new CacheLoader<>() {
-                @Override
-                public Path load(String key) throws Exception {
-                    return getResponses(key);
-                }
-            })
-            .build();
-    private final Cache<String, Integer> totalPerDayCache = Cache2kBuilder.of(String.class, Integer.class)
-            .expireAfterWrite(1, TimeUnit.HOURS)
-            .permitNullValues(false)
-            .loader(totalPerDyCacheLoader())
-            .build();
-
-    private final Cache<ComplexKey, Integer> totalPerDayPerMunicipalityCache = Cache2kBuilder.of(ComplexKey.class, Integer.class)
-            .expireAfterWrite(1, TimeUnit.HOURS)
-            .permitNullValues(false)
-            .loader(totalPerDayForMunicipalityCacheLoader())
-            .build();
-
-    private final Cache<ComplexKey, Integer> totalPerDayPerProvinceCache = Cache2kBuilder.of(ComplexKey.class, Integer.class)
-            .expireAfterWrite(1, TimeUnit.HOURS)
-            .permitNullValues(false)
-            .loader(totalPerDayForProvinceCacheLoader())
-            .build();
-
-    private List<String> provinces = new ArrayList<>();
-    private List<String> municipalities = new ArrayList<>();
-
-    @Override
-    public void preloadCache() throws IOException {
+    private final SciensanoClient sciensanoClient;
+    private final SnapshotStore snapshotStore;
+    private final MeterRegistry meterRegistry;
+    private final Scheduler ingestScheduler;
+    private final DatasetIndexer indexer;
+    private final AtomicReference<StatsSnapshot> snapshot = new AtomicReference<>(StatsSnapshot.EMPTY);
+    // Replays the last day to new subscribers, so they do not wait for the next refresh
+    private final Sinks.Many<CasesPerDayDTO> updates = Sinks.many().replay().latest();
+
+    public CachedStatsService(SciensanoClient sciensanoClient, SnapshotStore snapshotStore, MeterRegistry meterRegistry,
+                              Scheduler ingestScheduler) {
+        this.sciensanoClient = sciensanoClient;
+        this.snapshotStore = snapshotStore;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("stats.snapshot.age", snapshot, CachedStatsService::age)
+                .description("Time since the published snapshot was indexed")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("stats.snapshot.version", snapshot, current -> current.get().getVersion())
+                .register(meterRegistry);
+        this.ingestScheduler = ingestScheduler;
+        this.indexer = new DatasetIndexer(meterRegistry);
+    }
+
+    //Serve the snapshot of the previous run while the datasets are downloaded, the refresh only indexes the revised days into it
+    @Override
+    public void preloadCache() {
         log.info("Preloading cache");
-        log.info("Preloading " + AGE_SEX_KEY + " file");
-        cachedResponses.get(AGE_SEX_KEY);
-        log.info("Preloading " + DATE_MUNI_KEY + " file");
-        cachedResponses.get(DATE_MUNI_KEY);
-        log.info("Collect provinces");
-        provinces = collectProvinces();
-        log.info("Collect municipalities");
-        municipalities = collectMunicipalities();
+        snapshotStore.load().ifPresent(stored -> {
+            log.info("Restored snapshot " + stored.getVersion() + " of " + stored.getCreatedAt());
+            publish(stored);
+        });
+        refresh();
         log.info("Done preloading");
+    }
 
+    //Download and index the datasets off the request path, requests keep reading the previous snapshot meanwhile
+    @Scheduled(fixedDelayString = "${stats.refresh.interval}", initialDelayString = "${stats.refresh.interval}")
+    @Override
+    public synchronized void refresh() {
+        if (!snapshotStore.lead()) {
+            follow();
+            return;
+        }
+        StatsSnapshot current = snapshot.get();
+        Timer.Sample sample = Timer.start(meterRegistry);
+        AtomicBoolean failed = new AtomicBoolean();
+        // Published on this thread, the ingest threads only index
+        Map<String, DatasetIndex> datasets = Flux.fromIterable(Datasets.byFile().entrySet())
+                .flatMap(file -> refreshFile(file.getKey(), file.getValue(), current, failed))
+                .collectMap(Tuple2::getT1, Tuple2::getT2)
+                .block();
+        boolean modified = datasets.entrySet().stream()
+                .anyMatch(dataset -> dataset.getValue() != current.getDataset(dataset.getKey()));
+        if (!modified) {
+            log.info("No dataset modified, keeping snapshot " + current.getVersion());
+            sample.stop(meterRegistry.timer("stats.refresh", "outcome", failed.get() ? "error" : "not_modified"));
+        } else {
+            StatsSnapshot next = new StatsSnapshot(current.getVersion() + 1, datasets, Instant.now());
+            publish(next);
+            sample.stop(meterRegistry.timer("stats.refresh", "outcome", "published"));
+            store(next);
+        }
     }
 
-    private Path getResponses(String key) {
-        if (key.equals(AGE_SEX_KEY)) {
-            try {
-                Path path = Files.createTempFile(AGE_SEX_KEY, ".json");
-                getStream(AGE_SEX_URL, path);
-                return path;
-            } catch (IOException e) {
-                log.error("Could not get response.");
-            }
-        } else if (key.equals(DATE_MUNI_KEY)) {
-            try {
-                Path path = Files.createTempFile(DATE_MUNI_KEY, ".json");
-                getStream(DATE_MUNI, path);
-                return path;
-            } catch (IOException e) {
-                log.error("Could not get response.");
+    //Nodes that do not lead serve the snapshots the leader stores, nothing is downloaded or parsed
+    @Scheduled(fixedDelayString = "${stats.snapshot.poll-interval}", initialDelayString = "${stats.snapshot.poll-interval}")
+    public synchronized void follow() {
+        if (snapshotStore.lead()) return;
+        snapshotStore.loadNewer(snapshot.get().getVersion()).ifPresent(stored -> {
+            log.info("Following snapshot " + stored.getVersion() + " of " + stored.getCreatedAt());
+            publish(stored);
+        });
+    }
+
+    /**
+     * Downloads without blocking, the parsing runs on the ingest scheduler. The files are refreshed
+     * in parallel, every dataset of a file is indexed from the same download.
+     *
+     * @return the previous indexes of the datasets when the file was not modified or could not be refreshed,
+     * otherwise the previous indexes with the days of the new file from its first revised day on
+     */
+    private Flux<Tuple2<String, DatasetIndex>> refreshFile(String file, List<Dataset> datasets, StatsSnapshot current, AtomicBoolean failed) {
+        return Flux.using(() -> Files.createTempFile(StringUtils.substringBefore(file, "."), ".json.gz"),
+                        path -> {
+                            log.info("Downloading " + file);
+                            return sciensanoClient.download(file, path)
+                                    .publishOn(ingestScheduler)
+                                    .flatMapIterable(changed -> {
+                                        List<Tuple2<String, DatasetIndex>> indexes = new ArrayList<>(datasets.size());
+                                        for (Dataset dataset : datasets) {
+                                            DatasetIndex previous = current.getDataset(dataset);
+                                            if (changed) log.info("Indexing " + dataset.getKey() + " dataset");
+                                            indexes.add(Tuples.of(dataset.getKey(), changed ? indexer.index(dataset, path, previous) : previous));
+                                        }
+                                        return indexes;
+                                    });
+                        },
+                        this::delete)
+                .onErrorResume(e -> {
+                    // Nothing of this file is published, so the next refresh has to download it again
+                    sciensanoClient.reset(file);
+                    log.error("Could not refresh " + file + ", keeping its data of snapshot " + current.getVersion(), e);
+                    failed.set(true);
+                    return Flux.fromIterable(datasets).map(dataset -> Tuples.of(dataset.getKey(), current.getDataset(dataset)));
+                });
+    }
+
+    private static double age(AtomicReference<StatsSnapshot> snapshot) {
+        StatsSnapshot current = snapshot.get();
+        if (current.isEmpty()) return Double.NaN;
+        return Duration.between(current.getCreatedAt(), Instant.now()).toMillis() / 1000.0;
+    }
+
+    public StatsSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    private void publish(StatsSnapshot next) {
+        snapshot.set(next);
+        log.info("Published snapshot " + next.getVersion());
+        CasesIndex ageSex = next.getAgeSex();
+        if (!ageSex.isEmpty()) {
+            LocalDate lastDay = LocalDate.ofEpochDay(ageSex.getLastDay());
+            // The sink fails concurrent emits, the preload and the scheduled refreshes may publish at once
+            synchronized (updates) {
+                updates.tryEmitNext(toCasesPerDay(lastDay, ageSex.total(lastDay)));
             }
         }
-        return null;
     }
 
-    private void getStream(String url, Path path) {
-        // Optional Accept header
-        RequestCallback requestCallback = request -> request
-                .getHeaders()
-                .setAccept(Arrays.asList(MediaType.APPLICATION_OCTET_STREAM, MediaType.ALL));
+    private void store(StatsSnapshot next) {
+        try {
+            snapshotStore.save(next);
+        } catch (IOException e) {
+            log.error("Could not store snapshot " + next.getVersion(), e);
+        }
+    }
 
-        // Streams the response instead of loading it all in memory
-        ResponseExtractor<Void> responseExtractor = response -> {
-            // Here you can write the inputstream to a file or any other place
-            Files.copy(response.getBody(), path, StandardCopyOption.REPLACE_EXISTING);
-            return null;
-        };
-        restTemplate.execute(url, HttpMethod.GET, requestCallback, responseExtractor);
+    private void delete(Path path) {
+        if (path == null) return;
+        boolean deleted = path.toFile().delete();
+        if (deleted) {
+            log.info("Tmp file " + path + " successfully deleted");
+        } else {
+            log.error("Could not delete tmp file " + path);
+        }
     }
 
     @Override
     public Flux<CasesPerDayDTO> getCasesPerDay(int maxDays) {
-        return Flux.fromStream(IntStream.range(2, maxDays + 2).boxed().sorted(Collections.reverseOrder()))
-                .map(i -> {
-                    String date = convert(LocalDate.now().minusDays(i), JSON_DATE_FORMAT);
-                    return CasesPerDayDTO.builder()
-                            .date(date)
-                            .total(totalPerDayCache.get(date)).build();
-                });
+        return getCasesPerDay(DateRange.lastDays(maxDays), 1);
     }
 
     @Override
     public Flux<CasesPerDayDTO> getCasesPerDayForMunicipality(int maxDays, String municipality) {
-        return Flux.fromStream(IntStream.range(2, ++maxDays + 2).boxed().sorted(Collections.reverseOrder()))
-                .map(i -> {
-                    String date = convert(LocalDate.now().minusDays(i), JSON_DATE_FORMAT);
-                    return CasesPerDayDTO.builder()
-                            .date(date)
-                            .total(totalPerDayPerMunicipalityCache.get(ComplexKey.of(municipality, date))).build();
-                });
+        return getCasesPerDayForMunicipality(DateRange.lastDays(++maxDays), 1, municipality);
     }
 
     @Override
     public Flux<CasesPerDayDTO> getCasesPerDayForProvince(int maxDays, String province) {
-        return Flux.fromStream(IntStream.range(2, ++maxDays + 2).boxed().sorted(Collections.reverseOrder()))
-                .map(i -> {
-                    String date = convert(LocalDate.now().minusDays(i), JSON_DATE_FORMAT);
-                    return CasesPerDayDTO.builder()
-                            .date(date)
-                            .total(totalPerDayPerProvinceCache.get(ComplexKey.of(province, date))).build();
-                });
+        return getCasesPerDayForProvince(DateRange.lastDays(++maxDays), 1, province);
     }
 
+    /**
+     * Every day is read from the prefix sums of the index, the region is resolved to its id once.
+     */
     @Override
-    public Flux<String> getProvinces(String q) {
-        return Flux.fromIterable(provinces)
-                .filter(s -> {
-                    if (q == null) return true;
-                    if (q.equals("*")) return true;
-                    if (q.isBlank()) return true;
-                    return s.toLowerCase().contains(q.toLowerCase());
-                });
+    public Flux<CasesPerDayDTO> getCasesPerDay(DateRange range, int window) {
+        CasesIndex index = snapshot.get().getAgeSex();
+        return Flux.fromIterable(range.dates()).map(date -> toCasesPerDay(date, index.rollingSum(date, window)));
+    }
 
+    @Override
+    public Flux<CasesPerDayDTO> getCasesPerDayForMunicipality(DateRange range, int window, String municipality) {
+        return getCasesPerDay(snapshot.get().getMunicipalities(), range, window, municipality);
     }
 
     @Override
-    public Flux<String> getMunicipalities(String q) {
-        return Flux.fromIterable(municipalities)
-                .filter(s -> {
-                    if (q == null) return true;
-                    if (q.equals("*")) return true;
-                    if (q.isBlank()) return true;
-                    return s.toLowerCase().contains(q.toLowerCase());
-                });
+    public Flux<CasesPerDayDTO> getCasesPerDayForProvince(DateRange range, int window, String province) {
+        return getCasesPerDay(snapshot.get().getProvinces(), range, window, province);
+    }
 
+    private static Flux<CasesPerDayDTO> getCasesPerDay(CasesIndex index, DateRange range, int window, String region) {
+        int id = index.regionId(region);
+        return Flux.fromIterable(range.dates()).map(date -> toCasesPerDay(date, index.rollingSum(id, date, window)));
     }
 
-    private Integer totalFor(File json, String date) throws IOException {
-        try {
-            List<String> result = new ArrayList<>();
-            JsonFactory jsonfactory = new JsonFactory();
-            ObjectMapper mapper = new ObjectMapper();
-            JsonParser parser = jsonfactory.createParser(json);
+    @Override
+    public Mono<CasesMatrixDTO> getCasesPerDayForMunicipalities(DateRange range, int window, List<String> municipalities) {
+        return Mono.fromSupplier(() -> toMatrix(snapshot.get().getMunicipalities(), range, window, municipalities));
+    }
 
-            if (parser.nextToken() != JsonToken.START_ARRAY) {
-                throw new IllegalStateException("Expected an array");
-            }
-            while (parser.nextToken() == JsonToken.START_OBJECT) {
+    @Override
+    public Mono<CasesMatrixDTO> getCasesPerDayForProvinces(DateRange range, int window, List<String> provinces) {
+        return Mono.fromSupplier(() -> toMatrix(snapshot.get().getProvinces(), range, window, provinces));
+    }
 
-                ObjectNode node = mapper.readTree(parser);
-                String d = getNodeStringValue(node, "DATE");
+    @Override
+    public List<String> resolveMunicipalities(List<String> municipalities) {
+        return resolve(snapshot.get().getMunicipalities(), municipalities);
+    }
 
-                if (d.equalsIgnoreCase(date)) {
-                    result.add(getNodeStringValue(node, "CASES"));
-                }
-            }
+    @Override
+    public List<String> resolveProvinces(List<String> provinces) {
+        return resolve(snapshot.get().getProvinces(), provinces);
+    }
+
+    @Override
+    public String resolveMunicipality(String municipality) {
+        return resolve(snapshot.get().getMunicipalities(), municipality);
+    }
+
+    @Override
+    public String resolveProvince(String province) {
+        return resolve(snapshot.get().getProvinces(), province);
+    }
 
-            parser.close();
-            return result.parallelStream().filter(Strings::isNotEmpty).map(i -> {
-                        try {
-                            return Integer.parseInt(i);
-                        } catch (NumberFormatException e) {
-                            return 0;
-                        }
-                    }
-            ).mapToInt(Integer::intValue).sum();
-
-        } catch (IOException jge) {
-            jge.printStackTrace();
+    private static String resolve(CasesIndex index, String region) {
+        int id = index.regionId(region);
+        return id < 0 ? region.toLowerCase(Locale.ROOT) : index.regionName(id);
+    }
+
+    private static List<String> resolve(CasesIndex index, List<String> regions) {
+        if (regions.isEmpty() || regions.contains("*")) return List.of("*");
+        Map<String, String> distinct = new HashMap<>();
+        for (String region : regions) {
+            int id = index.regionId(region);
+            String name = id < 0 ? region : index.regionName(id);
+            distinct.putIfAbsent(name.toLowerCase(Locale.ROOT), name);
         }
-        return 0;
+        List<String> names = new ArrayList<>(distinct.values());
+        names.sort(Comparator.naturalOrder());
+        return names;
     }
 
-    private Integer totalForMunicipality(File json, String municipality, String date) throws IOException {
-        try {
-            List<String> result = new ArrayList<>();
-            JsonFactory jsonfactory = new JsonFactory();
-            ObjectMapper mapper = new ObjectMapper();
-            JsonParser parser = jsonfactory.createParser(json);
+    // One row per resolved region straight from its prefix sums, unknown regions get a row of zeros
+    private static CasesMatrixDTO toMatrix(CasesIndex index, DateRange range, int window, List<String> regions) {
+        List<String> resolved = resolve(index, regions);
+        List<String> names = resolved.equals(List.of("*")) ? index.getRegions() : resolved;
+        int[][] totals = new int[names.size()][];
+        for (int i = 0; i < names.size(); i++) {
+            totals[i] = index.rollingSums(index.regionId(names.get(i)), range.getFrom(), range.getTo(), window);
+        }
+        return CasesMatrixDTO.builder()
+                .from(convert(range.getFrom(), JSON_DATE_FORMAT))
+                .to(convert(range.getTo(), JSON_DATE_FORMAT))
+                .window(window)
+                .regions(names)
+                .totals(totals).build();
+    }
 
-            if (parser.nextToken() != JsonToken.START_ARRAY) {
-                throw new IllegalStateException("Expected an array");
-            }
-            while (parser.nextToken() == JsonToken.START_OBJECT) {
+    /**
+     * The metrics were computed when the snapshot was built, every day is a read of the stored series.
+     */
+    @Override
+    public Flux<CasesMetricsDTO> getMetrics(DateRange range) {
+        StatsSnapshot current = snapshot.get();
+        return getMetrics(current.getAgeSex()::total, current.getCountryMetrics().total(), current.getPositivity().total(), range);
+    }
 
-                ObjectNode node = mapper.readTree(parser);
-                String m = getNodeStringValue(node, "TX_DESCR_NL");
-                String d = getNodeStringValue(node, "DATE");
+    @Override
+    public Flux<CasesMetricsDTO> getMetricsForProvince(DateRange range, String province) {
+        StatsSnapshot current = snapshot.get();
+        CasesIndex index = current.getProvinces();
+        int id = index.regionId(province);
+        return getMetrics(date -> index.total(id, date), current.getProvinceMetrics().region(id),
+                current.getPositivity().region(province), range);
+    }
 
-                if (m.equalsIgnoreCase(municipality)
-                        && d.equalsIgnoreCase(date)) {
-                    result.add(getNodeStringValue(node, "CASES"));
-                }
-            }
+    private static Flux<CasesMetricsDTO> getMetrics(ToIntFunction<LocalDate> totals, CasesMetrics.Series series,
+                                                    PositivityRates.Rates positivity, DateRange range) {
+        return Flux.fromIterable(range.dates()).map(date -> CasesMetricsDTO.builder()
+                .date(convert(date, JSON_DATE_FORMAT))
+                .total(totals.applyAsInt(date))
+                .average7(orNull(series.average(date)))
+                .incidence14(orNull(series.incidence(date)))
+                .growth7(orNull(series.growth(date)))
+                .positivity7(orNull(positivity.rate(date))).build());
+    }
 
-            parser.close();
-            return result.parallelStream().filter(Strings::isNotEmpty).map(i -> {
-                        try {
-                            return Integer.parseInt(i);
-                        } catch (NumberFormatException e) {
-                            return 0;
-                        }
-                    }
-            ).mapToInt(Integer::intValue).sum();
-
-        } catch (IOException jge) {
-            jge.printStackTrace();
-        }
-        return 0;
+    private static Float orNull(float value) {
+        return Float.isNaN(value) ? null : value;
     }
 
-    private Integer totalForProvince(File json, String province, String date) throws IOException {
-        try {
-            List<String> result = new ArrayList<>();
-            JsonFactory jsonfactory = new JsonFactory();
-            ObjectMapper mapper = new ObjectMapper();
-            JsonParser parser = jsonfactory.createParser(json);
+    @Override
+    public Mono<CasesTotalDTO> getTotal(DateRange range) {
+        return Mono.fromSupplier(() -> toTotal(range, snapshot.get().getAgeSex().sum(range.getFrom(), range.getTo())));
+    }
 
-            if (parser.nextToken() != JsonToken.START_ARRAY) {
-                throw new IllegalStateException("Expected an array");
-            }
-            while (parser.nextToken() == JsonToken.START_OBJECT) {
+    @Override
+    public Mono<CasesTotalDTO> getTotalForMunicipality(DateRange range, String municipality) {
+        return Mono.fromSupplier(() -> toTotal(range, snapshot.get().getMunicipalities().sum(municipality, range.getFrom(), range.getTo())));
+    }
 
-                ObjectNode node = mapper.readTree(parser);
-                String p = getNodeStringValue(node, "PROVINCE");
-                String d = getNodeStringValue(node, "DATE");
+    @Override
+    public Mono<CasesTotalDTO> getTotalForProvince(DateRange range, String province) {
+        return Mono.fromSupplier(() -> toTotal(range, snapshot.get().getProvinces().sum(province, range.getFrom(), range.getTo())));
+    }
 
-                if (p.equalsIgnoreCase(province)
-                        && d.equalsIgnoreCase(date)) {
-                    result.add(getNodeStringValue(node, "CASES"));
-                }
-            }
+    @Override
+    public Flux<CasesPerDayDTO> getCasesPerDay(DateRange range, int window, Map<CasesCube.Dimension, String> filter) {
+        CasesCube cube = snapshot.get().getAgeSexCube();
+        return Flux.fromIterable(range.dates()).map(date -> toCasesPerDay(date, cube.rollingSum(filter, date, window)));
+    }
 
-            parser.close();
-            return result.parallelStream().filter(Strings::isNotEmpty).map(i -> {
-                        try {
-                            return Integer.parseInt(i);
-                        } catch (NumberFormatException e) {
-                            return 0;
-                        }
-                    }
-            ).mapToInt(Integer::intValue).sum();
-
-        } catch (IOException jge) {
-            jge.printStackTrace();
-        }
-        return 0;
+    @Override
+    public Mono<CasesTotalDTO> getTotal(DateRange range, Map<CasesCube.Dimension, String> filter) {
+        return Mono.fromSupplier(() -> toTotal(range, snapshot.get().getAgeSexCube().sum(filter, range.getFrom(), range.getTo())));
     }
 
-    private CacheLoader<ComplexKey, Integer> totalPerDayForMunicipalityCacheLoader() {
-        return new CacheLoader<>() {
-            @Override
-            public Integer load(ComplexKey pair) throws Exception {
-                return totalForMunicipality(cachedResponses.get(DATE_MUNI_KEY).toFile(), pair.getKey(), pair.getValue());
-            }
-        };
+    @Override
+    public Flux<CasesGroupDTO> getTotalsGroupedBy(DateRange range, CasesCube.Dimension group, Map<CasesCube.Dimension, String> filter) {
+        return Flux.defer(() -> Flux.fromIterable(snapshot.get().getAgeSexCube().sumBy(group, filter, range.getFrom(), range.getTo()).entrySet()))
+                .map(total -> CasesGroupDTO.builder()
+                        .group(total.getKey())
+                        .from(convert(range.getFrom(), JSON_DATE_FORMAT))
+                        .to(convert(range.getTo(), JSON_DATE_FORMAT))
+                        .total(total.getValue()).build());
     }
 
-    private CacheLoader<ComplexKey, Integer> totalPerDayForProvinceCacheLoader() {
-        return new CacheLoader<>() {
-            @Override
-            public Integer load(ComplexKey pair) throws Exception {
-                return totalForProvince(cachedResponses.get(AGE_SEX_KEY).toFile(), pair.getKey(), pair.getValue());
-            }
-        };
+    private static CasesPerDayDTO toCasesPerDay(LocalDate date, int total) {
+        return CasesPerDayDTO.builder()
+                .date(convert(date, JSON_DATE_FORMAT))
+                .total(total).build();
     }
 
-    private CacheLoader<String, Integer> totalPerDyCacheLoader() {
-        return new CacheLoader<>() {
-            @Override
-            public Integer load(String key) throws Exception {
-                return totalFor(cachedResponses.get(AGE_SEX_KEY).toFile(), key);
-            }
-        };
+    private static CasesTotalDTO toTotal(DateRange range, int total) {
+        return CasesTotalDTO.builder()
+                .from(convert(range.getFrom(), JSON_DATE_FORMAT))
+                .to(convert(range.getTo(), JSON_DATE_FORMAT))
+                .total(total).build();
     }
 
-    private List<String> collectProvinces() throws IOException {
-        JSONArray jsonArray = JsonPath.read(cachedResponses.get(AGE_SEX_KEY).toFile(), "$.[*].PROVINCE");
-        return jsonArray.parallelStream()
-                .map(Object::toString)
-                .filter(Objects::nonNull)
-                .distinct()
-                .sorted(Comparator.naturalOrder())
-                .collect((Collectors.toList()));
+    @Override
+    public Flux<CasesPerDayDTO> getPerDay(Dataset dataset, DateRange range, int window) {
+        CasesIndex index = snapshot.get().getDataset(dataset).getIndex();
+        return Flux.fromIterable(range.dates()).map(date -> toCasesPerDay(date, index.rollingSum(date, window)));
     }
 
-    private List<String> collectMunicipalities() throws IOException {
-        try {
-            TreeSet<String> result = new TreeSet<>();
-            JsonFactory jsonfactory = new JsonFactory();
-            ObjectMapper mapper = new ObjectMapper();
-            JsonParser parser = jsonfactory.createParser(cachedResponses.get(DATE_MUNI_KEY).toFile());
+    @Override
+    public Flux<CasesPerDayDTO> getPerDayForRegion(Dataset dataset, DateRange range, int window, String region) {
+        return getCasesPerDay(snapshot.get().getDataset(dataset).getIndex(), range, window, region);
+    }
 
-            if (parser.nextToken() != JsonToken.START_ARRAY) {
-                throw new IllegalStateException("Expected an array");
-            }
-            while (parser.nextToken() == JsonToken.START_OBJECT) {
-                ObjectNode node = mapper.readTree(parser);
-                String entry = getNodeStringValue(node, "TX_DESCR_NL");
-                if (Strings.isNotEmpty(entry)) result.add(entry);
-            }
+    @Override
+    public String resolveRegion(Dataset dataset, String region) {
+        return resolve(snapshot.get().getDataset(dataset).getIndex(), region);
+    }
+
+    @Override
+    public Mono<CasesTotalDTO> getTotal(Dataset dataset, DateRange range) {
+        return Mono.fromSupplier(() -> toTotal(range, snapshot.get().getDataset(dataset).getIndex().sum(range.getFrom(), range.getTo())));
+    }
 
-            parser.close();
-            return result.parallelStream().collect(Collectors.toList());
+    @Override
+    public Flux<String> getRegions(Dataset dataset) {
+        return Flux.defer(() -> Flux.fromIterable(snapshot.get().getDataset(dataset).getIndex().getRegions()));
+    }
 
-        } catch (IOException jge) {
-            jge.printStackTrace();
-        }
-        return List.of();
+    @Override
+    public Flux<CasesPerDayDTO> getPerDayForRegion(Dataset dataset, String level, DateRange range, int window, String region) {
+        return getCasesPerDay(level(dataset, level), range, window, region);
     }
 
-    private String getNodeStringValue(ObjectNode node, String fieldName) {
-        JsonNode entry = node.get(fieldName);
-        if (entry != null) {
-            return entry.asText();
-        }
-        return "";
+    @Override
+    public Mono<CasesMatrixDTO> getPerDayForRegions(Dataset dataset, String level, DateRange range, int window, List<String> regions) {
+        return Mono.fromSupplier(() -> toMatrix(level(dataset, level), range, window, regions));
+    }
+
+    @Override
+    public Mono<CasesTotalDTO> getTotalForRegion(Dataset dataset, String level, DateRange range, String region) {
+        return Mono.fromSupplier(() -> toTotal(range, level(dataset, level).sum(region, range.getFrom(), range.getTo())));
+    }
+
+    @Override
+    public Flux<String> getRegions(Dataset dataset, String level) {
+        return Flux.defer(() -> Flux.fromIterable(level(dataset, level).getRegions()));
+    }
+
+    @Override
+    public List<String> resolveRegions(Dataset dataset, String level, List<String> regions) {
+        return resolve(level(dataset, level), regions);
+    }
+
+    @Override
+    public String resolveRegion(Dataset dataset, String level, String region) {
+        return resolve(level(dataset, level), region);
+    }
+
+    // The regions of the dataset itself at their own level, the rolled up ones at the others
+    private CasesIndex level(Dataset dataset, String level) {
+        DatasetIndex index = snapshot.get().getDataset(dataset);
+        if (level.equals(dataset.getRegionLevel())) return index.getIndex();
+        CasesIndex rollup = index.getLevel(level);
+        return rollup == null ? CasesIndex.EMPTY : rollup;
+    }
+
+    @Override
+    public Flux<CasesPerDayDTO> getUpdates() {
+        return updates.asFlux();
     }
 
+    @Override
+    public Flux<String> getValues(CasesCube.Dimension dimension) {
+        return Flux.defer(() -> Flux.fromIterable(snapshot.get().getAgeSexCube().getValues(dimension)));
+    }
+
+    @Override
+    public Flux<String> getProvinces(String q) {
+        return getProvinces(q, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Flux<String> getProvinces(String q, int limit) {
+        return Flux.fromIterable(snapshot.get().getProvinceNames().search(q, limit));
+    }
+
+    @Override
+    public Flux<String> getMunicipalities(String q) {
+        return getMunicipalities(q, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Flux<String> getMunicipalities(String q, int limit) {
+        return Flux.fromIterable(snapshot.get().getMunicipalityNames().search(q, limit));
+    }
 }
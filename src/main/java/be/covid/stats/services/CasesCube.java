@@ -0,0 +1,241 @@
+package be.covid.stats.services;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Daily cases per combination of province, region, age group and sex.
+ * Every combination that occurs in the file is a cell with its own row of counts and prefix sums,
+ * stored as a region of a {@link CasesIndex}. A filtered or grouped sum over a date range is one
+ * subtraction per cell, there are a few hundred cells whatever the length of the range.
+ */
+public class CasesCube {
+    public static final CasesCube EMPTY = new CasesCube(CasesIndex.EMPTY);
+    private static final char SEPARATOR = '\u001F';
+
+    public enum Dimension {
+        PROVINCE("PROVINCE"), REGION("REGION"), AGE_GROUP("AGEGROUP"), SEX("SEX");
+
+        private final String field;
+
+        Dimension(String field) {
+            this.field = field;
+        }
+
+        /**
+         * @return the field of the dimension in the AGE_SEX file
+         */
+        public String getField() {
+            return field;
+        }
+
+        /**
+         * @return the dimension with the name, ignoring case, dashes and underscores, e.g. "age-group"
+         */
+        public static Optional<Dimension> find(String name) {
+            String normalized = name.replaceAll("[-_]", "");
+            return Arrays.stream(values())
+                    .filter(dimension -> dimension.name().replace("_", "").equalsIgnoreCase(normalized))
+                    .findFirst();
+        }
+    }
+
+    private final CasesIndex cells;
+    private final NameDictionary[] values;
+    // The value id per dimension of every cell, -1 when the record had no value
+    private final int[][] coordinates;
+
+    CasesCube(CasesIndex cells) {
+        this.cells = cells;
+        int dimensionCount = Dimension.values().length;
+        this.values = new NameDictionary[dimensionCount];
+        for (int d = 0; d < dimensionCount; d++) values[d] = new NameDictionary();
+        this.coordinates = new int[cells.getRegions().size()][dimensionCount];
+        for (int cell = 0; cell < coordinates.length; cell++) {
+            String[] names = cells.regionName(cell).split(String.valueOf(SEPARATOR), -1);
+            for (int d = 0; d < dimensionCount; d++) {
+                coordinates[cell][d] = names[d].isEmpty() ? -1 : values[d].idOf(names[d]);
+            }
+        }
+    }
+
+    /**
+     * @param dictionaries the dictionaries of the value ids passed to {@link Builder#add(int, int[], int)}, in dimension order
+     */
+    public static Builder builder(NameDictionary[] dictionaries) {
+        return new Builder(CasesIndex.builder(), dictionaries);
+    }
+
+    /**
+     * Starts an incremental build, see {@link CasesIndex#builder(CasesIndex, int)}.
+     */
+    public static Builder builder(CasesCube base, int fromDay, NameDictionary[] dictionaries) {
+        return new Builder(CasesIndex.builder(base.cells, fromDay), dictionaries);
+    }
+
+    public boolean isEmpty() {
+        return cells.isEmpty();
+    }
+
+    /**
+     * @return the distinct values of the dimension, sorted
+     */
+    public List<String> getValues(Dimension dimension) {
+        NameDictionary dictionary = values[dimension.ordinal()];
+        List<String> result = new ArrayList<>(dictionary.size());
+        for (int id = 0; id < dictionary.size(); id++) result.add(dictionary.nameOf(id));
+        result.sort(Comparator.naturalOrder());
+        return result;
+    }
+
+    /**
+     * @param filter the value per dimension the cases must have, case insensitive. Dimensions that are absent match everything.
+     * @return the sum of the matching cases from up to and including to
+     */
+    public int sum(Map<Dimension, String> filter, LocalDate from, LocalDate to) {
+        int[] wanted = resolve(filter);
+        if (wanted == null) return 0;
+        int sum = 0;
+        for (int cell = 0; cell < coordinates.length; cell++) {
+            if (matches(cell, wanted)) sum += cells.sum(cell, from, to);
+        }
+        return sum;
+    }
+
+    public int rollingSum(Map<Dimension, String> filter, LocalDate date, int window) {
+        return sum(filter, date.minusDays(window - 1), date);
+    }
+
+    /**
+     * @return the sum of the matching cases per value of the group dimension, sorted by value.
+     * Cases without a value for the group dimension are under the null key, last.
+     */
+    public Map<String, Integer> sumBy(Dimension group, Map<Dimension, String> filter, LocalDate from, LocalDate to) {
+        Map<String, Integer> result = new TreeMap<>(Comparator.nullsLast(Comparator.naturalOrder()));
+        int[] wanted = resolve(filter);
+        if (wanted == null) return result;
+        NameDictionary groupValues = values[group.ordinal()];
+        // The last slot counts the cells without a value
+        int[] sums = new int[groupValues.size() + 1];
+        boolean[] matched = new boolean[sums.length];
+        for (int cell = 0; cell < coordinates.length; cell++) {
+            if (!matches(cell, wanted)) continue;
+            int value = coordinates[cell][group.ordinal()];
+            int slot = value < 0 ? groupValues.size() : value;
+            sums[slot] += cells.sum(cell, from, to);
+            matched[slot] = true;
+        }
+        for (int slot = 0; slot < sums.length; slot++) {
+            if (matched[slot]) result.put(slot < groupValues.size() ? groupValues.nameOf(slot) : null, sums[slot]);
+        }
+        return result;
+    }
+
+    // The value id per dimension, -1 for any value, null when a value is unknown and nothing can match
+    private int[] resolve(Map<Dimension, String> filter) {
+        int[] wanted = new int[values.length];
+        Arrays.fill(wanted, -1);
+        for (Map.Entry<Dimension, String> entry : filter.entrySet()) {
+            if (entry.getValue() == null) continue;
+            int id = values[entry.getKey().ordinal()].find(entry.getValue());
+            if (id < 0) return null;
+            wanted[entry.getKey().ordinal()] = id;
+        }
+        return wanted;
+    }
+
+    private boolean matches(int cell, int[] wanted) {
+        for (int d = 0; d < wanted.length; d++) {
+            if (wanted[d] >= 0 && coordinates[cell][d] != wanted[d]) return false;
+        }
+        return true;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        cells.write(out);
+    }
+
+    static CasesCube read(ByteBuffer in) {
+        return new CasesCube(CasesIndex.read(in));
+    }
+
+    public static class Builder {
+        private final CasesIndex.Builder cells;
+        private final NameDictionary[] dictionaries;
+        // Cell id per combination of value ids, so a cell name is only built the first time a combination is seen
+        private long[] keys = new long[64];
+        private int[] ids = new int[64];
+        private int size;
+
+        private Builder(CasesIndex.Builder cells, NameDictionary[] dictionaries) {
+            this.cells = cells;
+            this.dictionaries = dictionaries;
+            Arrays.fill(keys, -1);
+        }
+
+        /**
+         * @param valueIds the value id per dimension, -1 when absent
+         */
+        public Builder add(int day, int[] valueIds, int cases) {
+            cells.add(cellId(valueIds), day, cases);
+            return this;
+        }
+
+        /**
+         * Adds the daily cases of a combination of values from firstDay on, see {@link CasesIndex.Builder#add(int, int, int[])}.
+         */
+        public Builder add(int firstDay, int[] valueIds, int[] cases) {
+            cells.add(cellId(valueIds), firstDay, cases);
+            return this;
+        }
+
+        public CasesCube build() {
+            return new CasesCube(cells.build());
+        }
+
+        private int cellId(int[] valueIds) {
+            // 16 bits per dimension is plenty for provinces, regions, age groups and sexes
+            long key = 0;
+            for (int valueId : valueIds) key = (key << 16) | (valueId + 1);
+            int mask = keys.length - 1;
+            int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+            while (keys[slot] != -1) {
+                if (keys[slot] == key) return ids[slot];
+                slot = (slot + 1) & mask;
+            }
+            int id = cells.regions().idOf(name(valueIds));
+            keys[slot] = key;
+            ids[slot] = id;
+            if (++size * 2 > keys.length) rehash();
+            return id;
+        }
+
+        private String name(int[] valueIds) {
+            StringBuilder name = new StringBuilder();
+            for (int d = 0; d < valueIds.length; d++) {
+                if (d > 0) name.append(SEPARATOR);
+                if (valueIds[d] >= 0) name.append(dictionaries[d].nameOf(valueIds[d]));
+            }
+            return name.toString();
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new long[oldKeys.length * 2];
+            ids = new int[oldIds.length * 2];
+            Arrays.fill(keys, -1);
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == -1) continue;
+                int slot = Long.hashCode(oldKeys[i] * 0x9E3779B97F4A7C15L) & mask;
+                while (keys[slot] != -1) slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                ids[slot] = oldIds[i];
+            }
+        }
+    }
+}
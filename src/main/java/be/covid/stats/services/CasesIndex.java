@@ -0,0 +1,395 @@
+package be.covid.stats.services;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Daily case totals of one Sciensano file, aggregated per region in a single pass.
+ * Lookups are array reads: the day is an offset from the first day in the file
+ * and every region has its own row of counts.
+ * Regions can have aliases, such as a name in another language or a code, that resolve to the same region id.
+ */
+public class CasesIndex {
+    public static final CasesIndex EMPTY = new Builder().build();
+
+    private final int firstDay;
+    private final int[] totals;
+    private final NameDictionary regionIds;
+    private final NameDictionary aliasIds;
+    // Region id per alias id
+    private final int[] aliasRegions;
+    private final List<String> regions;
+    private final int[][] perRegion;
+    // Prefix sums, cumulative[i] is the sum of the first i days, so any range sum is one subtraction
+    private final int[] cumulative;
+    private final int[][] cumulativePerRegion;
+
+    private CasesIndex(int firstDay, int[] totals, NameDictionary regionIds, NameDictionary aliasIds, int[] aliasRegions,
+                       List<String> regions, int[][] perRegion) {
+        this.firstDay = firstDay;
+        this.totals = totals;
+        this.regionIds = regionIds;
+        this.aliasIds = aliasIds;
+        this.aliasRegions = aliasRegions;
+        this.regions = regions;
+        this.perRegion = perRegion;
+        this.cumulative = cumulative(totals);
+        this.cumulativePerRegion = new int[perRegion.length][];
+        for (int id = 0; id < perRegion.length; id++) cumulativePerRegion[id] = cumulative(perRegion[id]);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Starts an incremental build: the days before fromDay are taken over from the base index,
+     * only records from fromDay on have to be added.
+     */
+    public static Builder builder(CasesIndex base, int fromDay) {
+        return new Builder(base, fromDay);
+    }
+
+    /**
+     * @return the epoch day of the first day in the index
+     */
+    public int getFirstDay() {
+        return firstDay;
+    }
+
+    /**
+     * @return the epoch day of the last day in the index, before the first day when the index is empty
+     */
+    public int getLastDay() {
+        return firstDay + totals.length - 1;
+    }
+
+    public boolean isEmpty() {
+        return totals.length == 0;
+    }
+
+    public int total(LocalDate date) {
+        long day = date.toEpochDay() - firstDay;
+        if (day < 0 || day >= totals.length) return 0;
+        return totals[(int) day];
+    }
+
+    /**
+     * Resolves a region name or one of its aliases, case insensitive. Resolve once and query with the id
+     * when several lookups are done for the same region.
+     *
+     * @return the id of the region, or -1 when it is unknown
+     */
+    public int regionId(String region) {
+        int id = regionIds.find(region);
+        if (id >= 0) return id;
+        int alias = aliasIds.find(region);
+        return alias < 0 ? -1 : aliasRegions[alias];
+    }
+
+    /**
+     * @return the name of the region as it is in the file
+     */
+    public String regionName(int id) {
+        return regionIds.nameOf(id);
+    }
+
+    public int total(String region, LocalDate date) {
+        return total(regionId(region), date);
+    }
+
+    public int total(int id, LocalDate date) {
+        if (id < 0) return 0;
+        long day = date.toEpochDay() - firstDay;
+        int[] row = perRegion[id];
+        if (day < 0 || day >= row.length) return 0;
+        return row[(int) day];
+    }
+
+    /**
+     * @return the sum of the days from up to and including to
+     */
+    public int sum(LocalDate from, LocalDate to) {
+        return sum(cumulative, from, to);
+    }
+
+    public int sum(String region, LocalDate from, LocalDate to) {
+        return sum(regionId(region), from, to);
+    }
+
+    public int sum(int id, LocalDate from, LocalDate to) {
+        if (id < 0) return 0;
+        return sum(cumulativePerRegion[id], from, to);
+    }
+
+    /**
+     * @return the sum of the window days up to and including the date
+     */
+    public int rollingSum(LocalDate date, int window) {
+        return sum(date.minusDays(window - 1), date);
+    }
+
+    public int rollingSum(String region, LocalDate date, int window) {
+        return rollingSum(regionId(region), date, window);
+    }
+
+    public int rollingSum(int id, LocalDate date, int window) {
+        return sum(id, date.minusDays(window - 1), date);
+    }
+
+    /**
+     * @return the rolling sum of the window days up to and including every day from up to and including to
+     */
+    public int[] rollingSums(int id, LocalDate from, LocalDate to, int window) {
+        int[] result = new int[(int) (to.toEpochDay() - from.toEpochDay() + 1)];
+        if (id < 0) return result;
+        int[] cumulative = cumulativePerRegion[id];
+        long day = from.toEpochDay();
+        for (int i = 0; i < result.length; i++, day++) result[i] = sum(cumulative, day - window + 1, day);
+        return result;
+    }
+
+    /**
+     * @return the cases of every day from the first day, not copied, so not to be modified
+     */
+    int[] dailyTotals() {
+        return totals;
+    }
+
+    int[] daily(int id) {
+        return perRegion[id];
+    }
+
+    private int sum(int[] cumulative, LocalDate from, LocalDate to) {
+        return sum(cumulative, from.toEpochDay(), to.toEpochDay());
+    }
+
+    // In longs, so days far from the index do not wrap around into it
+    private int sum(int[] cumulative, long fromDay, long toDay) {
+        int start = clamp(fromDay - firstDay, cumulative.length - 1);
+        int end = clamp(toDay - firstDay + 1, cumulative.length - 1);
+        if (end <= start) return 0;
+        return cumulative[end] - cumulative[start];
+    }
+
+    private static int clamp(long day, int length) {
+        return (int) Math.max(0, Math.min(day, length));
+    }
+
+    private static int[] cumulative(int[] values) {
+        int[] result = new int[values.length + 1];
+        for (int i = 0; i < values.length; i++) result[i + 1] = result[i] + values[i];
+        return result;
+    }
+
+    /**
+     * Writes the index in the layout {@link #read(ByteBuffer)} expects: the names first, then the counts
+     * as plain int arrays, so reading them back is a bulk copy instead of a parse.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(firstDay);
+        out.writeInt(totals.length);
+        out.writeInt(regionIds.size());
+        out.writeInt(aliasIds.size());
+        for (int id = 0; id < regionIds.size(); id++) writeString(out, regionIds.nameOf(id));
+        for (int id = 0; id < aliasIds.size(); id++) {
+            writeString(out, aliasIds.nameOf(id));
+            out.writeInt(aliasRegions[id]);
+        }
+        writeInts(out, totals);
+        for (int[] row : perRegion) writeInts(out, row);
+    }
+
+    static CasesIndex read(ByteBuffer in) {
+        int firstDay = in.getInt();
+        int length = in.getInt();
+        int regionCount = in.getInt();
+        int aliasCount = in.getInt();
+        Builder builder = new Builder();
+        for (int id = 0; id < regionCount; id++) builder.regions.idOf(readString(in));
+        for (int id = 0; id < aliasCount; id++) builder.alias(builder.aliases.idOf(readString(in)), in.getInt());
+        int[] totals = readInts(in, length);
+        int[][] perRegion = new int[regionCount][];
+        for (int id = 0; id < regionCount; id++) perRegion[id] = readInts(in, length);
+        return new CasesIndex(firstDay, totals, builder.regions, builder.aliases,
+                Arrays.copyOf(builder.aliasRegions, aliasCount), sorted(builder.regions), perRegion);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) out.writeInt(value);
+    }
+
+    private static int[] readInts(ByteBuffer in, int length) {
+        int[] values = new int[length];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + length * Integer.BYTES);
+        return values;
+    }
+
+    private static List<String> sorted(NameDictionary regions) {
+        List<String> sorted = new ArrayList<>(regions.size());
+        for (int id = 0; id < regions.size(); id++) sorted.add(regions.nameOf(id));
+        sorted.sort(Comparator.naturalOrder());
+        return List.copyOf(sorted);
+    }
+
+    /**
+     * @return the distinct region names of the file, sorted
+     */
+    public List<String> getRegions() {
+        return regions;
+    }
+
+    public static class Builder {
+        private final NameDictionary regions = new NameDictionary();
+        private final NameDictionary aliases = new NameDictionary();
+        private int[] aliasRegions = new int[16];
+        private final CasesIndex base;
+        private final int fromDay;
+        // One (region, day, cases) triple per record, flattened
+        private int[] records = new int[3 * 1024];
+        private int size;
+        private final List<Row> rows = new ArrayList<>();
+
+        private Builder() {
+            this(null, Integer.MIN_VALUE);
+        }
+
+        private Builder(CasesIndex base, int fromDay) {
+            this.base = base;
+            this.fromDay = fromDay;
+            // Same names in the same order, so the region ids of the base stay valid
+            if (base != null) {
+                for (int id = 0; id < base.regionIds.size(); id++) regions.idOf(base.regionIds.nameOf(id));
+                for (int id = 0; id < base.aliasIds.size(); id++) {
+                    alias(aliases.idOf(base.aliasIds.nameOf(id)), base.aliasRegions[id]);
+                }
+            }
+        }
+
+        /**
+         * @return the dictionary the region ids passed to {@link #add(int, int, int)} refer to
+         */
+        public NameDictionary regions() {
+            return regions;
+        }
+
+        /**
+         * @return the dictionary the alias ids passed to {@link #alias(int, int)} refer to
+         */
+        public NameDictionary aliases() {
+            return aliases;
+        }
+
+        /**
+         * Lets the alias resolve to the region, ignored when either is absent (-1).
+         */
+        public Builder alias(int aliasId, int regionId) {
+            if (aliasId < 0 || regionId < 0) return this;
+            if (aliasId >= aliasRegions.length) {
+                aliasRegions = Arrays.copyOf(aliasRegions, Math.max(aliasRegions.length * 2, aliasId + 1));
+            }
+            aliasRegions[aliasId] = regionId;
+            return this;
+        }
+
+        /**
+         * Adds one record of the file. Records without a region (-1) only count towards the daily total,
+         * records before the start day of an incremental build are ignored.
+         */
+        public Builder add(int regionId, int day, int cases) {
+            if (day < fromDay) return this;
+            if (size + 3 > records.length) records = Arrays.copyOf(records, records.length * 2);
+            records[size++] = regionId;
+            records[size++] = day;
+            records[size++] = cases;
+            return this;
+        }
+
+        /**
+         * Adds the daily cases of a region from firstDay on, like one record per day. The days before
+         * the start day of an incremental build are ignored.
+         */
+        public Builder add(int regionId, int firstDay, int[] cases) {
+            int skip = fromDay <= firstDay ? 0 : fromDay - firstDay;
+            if (skip >= cases.length) return this;
+            rows.add(new Row(regionId, firstDay + skip, skip == 0 ? cases : Arrays.copyOfRange(cases, skip, cases.length)));
+            return this;
+        }
+
+        public CasesIndex build() {
+            int firstDay = Integer.MAX_VALUE;
+            int lastDay = Integer.MIN_VALUE;
+            for (int i = 1; i < size; i += 3) {
+                firstDay = Math.min(firstDay, records[i]);
+                lastDay = Math.max(lastDay, records[i]);
+            }
+            for (Row row : rows) {
+                firstDay = Math.min(firstDay, row.firstDay);
+                lastDay = Math.max(lastDay, row.firstDay + row.cases.length - 1);
+            }
+            boolean reuseBase = base != null && !base.isEmpty() && base.firstDay < fromDay;
+            if (reuseBase) {
+                firstDay = Math.min(firstDay, base.firstDay);
+                lastDay = Math.max(lastDay, Math.min(base.getLastDay(), fromDay - 1));
+            }
+            boolean empty = firstDay > lastDay;
+            int length = empty ? 0 : lastDay - firstDay + 1;
+            if (empty) firstDay = 0;
+
+            int[] totals = new int[length];
+            int[][] perRegion = new int[regions.size()][length];
+            if (reuseBase) {
+                int offset = base.firstDay - firstDay;
+                int count = Math.min(base.totals.length, fromDay - base.firstDay);
+                System.arraycopy(base.totals, 0, totals, offset, count);
+                for (int id = 0; id < base.perRegion.length; id++) {
+                    System.arraycopy(base.perRegion[id], 0, perRegion[id], offset, count);
+                }
+            }
+            for (int i = 0; i < size; i += 3) {
+                int day = records[i + 1] - firstDay;
+                totals[day] += records[i + 2];
+                if (records[i] >= 0) perRegion[records[i]][day] += records[i + 2];
+            }
+            for (Row row : rows) {
+                int offset = row.firstDay - firstDay;
+                for (int day = 0; day < row.cases.length; day++) totals[offset + day] += row.cases[day];
+                if (row.regionId < 0) continue;
+                int[] region = perRegion[row.regionId];
+                for (int day = 0; day < row.cases.length; day++) region[offset + day] += row.cases[day];
+            }
+
+            return new CasesIndex(firstDay, totals, regions, aliases, Arrays.copyOf(aliasRegions, aliases.size()),
+                    sorted(regions), perRegion);
+        }
+    }
+
+    private static final class Row {
+        private final int regionId;
+        private final int firstDay;
+        private final int[] cases;
+
+        private Row(int regionId, int firstDay, int[] cases) {
+            this.regionId = regionId;
+            this.firstDay = firstDay;
+            this.cases = cases;
+        }
+    }
+}
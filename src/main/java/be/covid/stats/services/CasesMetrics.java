@@ -0,0 +1,102 @@
+package be.covid.stats.services;
+
+import java.time.LocalDate;
+
+/**
+ * Series derived from the daily cases of a {@link CasesIndex}: the 7 day average, the 14 day incidence per 100k
+ * and the week over week growth. They are computed once per snapshot, in one pass over every row with
+ * sliding windows, so a request reads them instead of recomputing them from the daily cases.
+ * Days before the first day of the index count as 0, as they do for {@link CasesIndex#rollingSum(LocalDate, int)}.
+ */
+public class CasesMetrics {
+    private static final Series NONE = new Series(0, new int[0], 0);
+
+    private final Series total;
+    private final Series[] perRegion;
+
+    /**
+     * @param population the population of all regions together, 0 when it is unknown
+     */
+    public CasesMetrics(CasesIndex index, PopulationTable populationTable, long population) {
+        this.total = new Series(index.getFirstDay(), index.dailyTotals(), population);
+        long[] populations = populationTable.populations(index);
+        this.perRegion = new Series[populations.length];
+        for (int id = 0; id < perRegion.length; id++) {
+            perRegion[id] = new Series(index.getFirstDay(), index.daily(id), populations[id]);
+        }
+    }
+
+    /**
+     * @return the metrics of all regions together
+     */
+    public Series total() {
+        return total;
+    }
+
+    /**
+     * @param id a region id of the index, see {@link CasesIndex#regionId(String)}
+     * @return the metrics of the region, without values when the id is -1
+     */
+    public Series region(int id) {
+        return id < 0 ? NONE : perRegion[id];
+    }
+
+    /**
+     * The metrics of one region per day. Days outside the index and values without a denominator are NaN.
+     */
+    public static class Series {
+        private final int firstDay;
+        private final float[] average;
+        private final float[] incidence;
+        private final float[] growth;
+
+        private Series(int firstDay, int[] daily, long population) {
+            this.firstDay = firstDay;
+            this.average = new float[daily.length];
+            this.incidence = new float[daily.length];
+            this.growth = new float[daily.length];
+            // The cases of the last 7 days and of the 7 days before those
+            int week = 0;
+            int previousWeek = 0;
+            for (int day = 0; day < daily.length; day++) {
+                week += daily[day];
+                if (day >= 7) {
+                    week -= daily[day - 7];
+                    previousWeek += daily[day - 7];
+                }
+                if (day >= 14) previousWeek -= daily[day - 14];
+                average[day] = week / 7f;
+                incidence[day] = population > 0 ? (week + previousWeek) * 100_000f / population : Float.NaN;
+                growth[day] = previousWeek > 0 ? (week - previousWeek) / (float) previousWeek : Float.NaN;
+            }
+        }
+
+        /**
+         * @return the average cases per day of the 7 days up to and including the date
+         */
+        public float average(LocalDate date) {
+            return get(average, date);
+        }
+
+        /**
+         * @return the cases of the 14 days up to and including the date per 100 000 inhabitants
+         */
+        public float incidence(LocalDate date) {
+            return get(incidence, date);
+        }
+
+        /**
+         * @return the relative change of the cases of the 7 days up to and including the date over the 7 days before,
+         * e.g. 0.25 for 25% more cases
+         */
+        public float growth(LocalDate date) {
+            return get(growth, date);
+        }
+
+        private float get(float[] values, LocalDate date) {
+            long day = date.toEpochDay() - firstDay;
+            if (day < 0 || day >= values.length) return Float.NaN;
+            return values[(int) day];
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package be.covid.stats.services;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Describes a Sciensano file and how the {@link DatasetIndexer} indexes it: the daily values of one field,
+ * per value of the region field. Several datasets can read different values of the same file,
+ * the file is downloaded once for all of them.
+ */
+@Getter
+@Builder
+public class Dataset {
+    // Identifies the dataset in the snapshot and the API
+    private final String key;
+    // File name relative to the Sciensano base url
+    private final String file;
+    @Builder.Default
+    private final String dateField = "DATE";
+    private final String valueField;
+    // The regions of the index, null when the file only has daily totals
+    private final String regionField;
+    // Other names of the region of a record, such as a translation or a code
+    @Singular
+    private final List<String> aliasFields;
+    // Whether the combinations of the CasesCube dimensions are indexed as well
+    private final boolean cube;
+    // The level of the regions of the index in a hierarchy, e.g. municipalities
+    private final String regionLevel;
+    // The coarser levels the regions roll up to, from fine to coarse
+    @Singular
+    private final List<Level> levels;
+
+    /**
+     * @return the key of the level, ignoring case, the region level included
+     */
+    public Optional<String> findLevel(String key) {
+        return levelKeys().stream().filter(key::equalsIgnoreCase).findFirst();
+    }
+
+    /**
+     * @return the region level followed by the levels it rolls up to, empty without a region level
+     */
+    public List<String> levelKeys() {
+        if (regionLevel == null) return List.of();
+        List<String> keys = new ArrayList<>();
+        keys.add(regionLevel);
+        for (Level level : levels) keys.add(level.getKey());
+        return keys;
+    }
+
+    /**
+     * A level the regions roll up to: every record counts for the value of the field, also without a region.
+     * Without a field, every record counts for the one parent with the name.
+     */
+    @Getter
+    public static class Level {
+        private final String key;
+        private final String field;
+        private final String name;
+
+        private Level(String key, String field, String name) {
+            this.key = key;
+            this.field = field;
+            this.name = name;
+        }
+
+        public static Level of(String key, String field) {
+            return new Level(key, field, null);
+        }
+
+        public static Level all(String key, String name) {
+            return new Level(key, null, name);
+        }
+    }
+}
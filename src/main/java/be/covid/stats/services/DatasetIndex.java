@@ -0,0 +1,78 @@
+package be.covid.stats.services;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The indexes of one {@link Dataset}: the daily values per region and, for datasets with a cube,
+ * per combination of the cube dimensions. Datasets with levels also have the regions rolled up to every level.
+ */
+public class DatasetIndex {
+    public static final DatasetIndex EMPTY = new DatasetIndex(CasesIndex.EMPTY, CasesCube.EMPTY, Map.of(), DayDigests.EMPTY);
+
+    private final CasesIndex index;
+    private final CasesCube cube;
+    private final Map<String, CasesIndex> rollups;
+    // Of the file the indexes were built from, so the next download is only indexed from its first revised day
+    private final DayDigests digests;
+
+    DatasetIndex(CasesIndex index, CasesCube cube, Map<String, CasesIndex> rollups, DayDigests digests) {
+        this.index = index;
+        this.cube = cube;
+        this.rollups = Map.copyOf(rollups);
+        this.digests = digests;
+    }
+
+    public CasesIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the cube, empty when the dataset has none
+     */
+    public CasesCube getCube() {
+        return cube;
+    }
+
+    /**
+     * @return the regions rolled up to the level, null when the dataset does not have it
+     */
+    public CasesIndex getLevel(String level) {
+        return rollups.get(level);
+    }
+
+    DayDigests getDigests() {
+        return digests;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        index.write(out);
+        out.writeBoolean(!cube.isEmpty());
+        if (!cube.isEmpty()) cube.write(out);
+        out.writeInt(rollups.size());
+        for (Map.Entry<String, CasesIndex> rollup : rollups.entrySet()) {
+            byte[] level = rollup.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(level.length);
+            out.write(level);
+            rollup.getValue().write(out);
+        }
+        digests.write(out);
+    }
+
+    static DatasetIndex read(ByteBuffer in) {
+        CasesIndex index = CasesIndex.read(in);
+        CasesCube cube = in.get() != 0 ? CasesCube.read(in) : CasesCube.EMPTY;
+        int count = in.getInt();
+        Map<String, CasesIndex> rollups = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            byte[] level = new byte[in.getInt()];
+            in.get(level);
+            rollups.put(new String(level, StandardCharsets.UTF_8), CasesIndex.read(in));
+        }
+        return new DatasetIndex(index, cube, rollups, DayDigests.read(in));
+    }
+}
@@ -0,0 +1,179 @@
+package be.covid.stats.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Indexes any Sciensano file from its {@link Dataset} descriptor, in one pass over the file.
+ * With a previous index, the file is compared with the previous download day by day and only indexed
+ * from the first day that differs: Sciensano appends new days and mostly revises recent ones.
+ */
+public class DatasetIndexer {
+    private final MeterRegistry meterRegistry;
+
+    public DatasetIndexer(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @return the previous index when the file has the same records, otherwise the previous index
+     * with the days from the first revised one on indexed from the file
+     */
+    public DatasetIndex index(Dataset dataset, Path path, DatasetIndex previous) {
+        // The cube dimensions come first, so the record values start with the value ids of a cube cell
+        List<String> fields = new ArrayList<>();
+        if (dataset.isCube()) {
+            for (CasesCube.Dimension dimension : CasesCube.Dimension.values()) fields.add(dimension.getField());
+        }
+        int region = dataset.getRegionField() == null ? -1 : fieldIndex(fields, dataset.getRegionField());
+        int[] aliases = new int[dataset.getAliasFields().size()];
+        for (int a = 0; a < aliases.length; a++) aliases[a] = fieldIndex(fields, dataset.getAliasFields().get(a));
+        // Every level sums the records of its own parent, a field of the record or one constant parent,
+        // so records without a region still count at the levels they name
+        List<Dataset.Level> levels = dataset.getLevels();
+        int[] levelFields = new int[levels.size()];
+        for (int l = 0; l < levels.size(); l++) {
+            String field = levels.get(l).getField();
+            levelFields[l] = field == null ? -1 : fieldIndex(fields, field);
+        }
+        NameDictionary[] dictionaries = new NameDictionary[fields.size()];
+        for (int i = 0; i < dictionaries.length; i++) dictionaries[i] = new NameDictionary();
+
+        // One row of daily sums per combination of field values, so the lookups below are done once per combination
+        List<Row> rows = new ArrayList<>();
+        aggregate(dataset, path, fields.toArray(new String[0]), dictionaries,
+                (values, firstDay, sums) -> rows.add(new Row(values.clone(), firstDay, sums)));
+
+        DayDigests digests = digests(rows, dictionaries);
+        int fromDay = isComplete(dataset, previous) ? digests.firstDifference(previous.getDigests()) : Integer.MIN_VALUE;
+        if (fromDay == Integer.MAX_VALUE) return previous;
+
+        return meterRegistry.timer("stats.ingest.index", "dataset", dataset.getKey())
+                .record(() -> {
+                    CasesIndex.Builder builder = builder(previous.getIndex(), fromDay);
+                    int[] regionIds = region < 0 ? null : ids(dictionaries[region], builder.regions());
+                    int[][] aliasIds = new int[aliases.length][];
+                    for (int a = 0; a < aliases.length; a++) aliasIds[a] = ids(dictionaries[aliases[a]], builder.aliases());
+                    CasesIndex.Builder[] levelBuilders = new CasesIndex.Builder[levels.size()];
+                    int[][] parentIds = new int[levels.size()][];
+                    int[] constantParents = new int[levels.size()];
+                    for (int l = 0; l < levels.size(); l++) {
+                        levelBuilders[l] = builder(previous.getLevel(levels.get(l).getKey()), fromDay);
+                        if (levelFields[l] >= 0) parentIds[l] = ids(dictionaries[levelFields[l]], levelBuilders[l].regions());
+                        else constantParents[l] = levelBuilders[l].regions().idOf(levels.get(l).getName());
+                    }
+                    int cubeDimensions = dataset.isCube() ? CasesCube.Dimension.values().length : 0;
+                    NameDictionary[] cubeDictionaries = Arrays.copyOf(dictionaries, cubeDimensions);
+                    CasesCube.Builder cube = !dataset.isCube() ? null : fromDay == Integer.MIN_VALUE
+                            ? CasesCube.builder(cubeDictionaries)
+                            : CasesCube.builder(previous.getCube(), fromDay, cubeDictionaries);
+                    int[] cell = new int[cubeDimensions];
+
+                    for (Row row : rows) {
+                        int regionId = region < 0 ? -1 : id(regionIds, row.values[region]);
+                        builder.add(regionId, row.firstDay, row.sums);
+                        for (int a = 0; a < aliases.length; a++) builder.alias(id(aliasIds[a], row.values[aliases[a]]), regionId);
+                        for (int l = 0; l < levelBuilders.length; l++) {
+                            int parentId = levelFields[l] < 0 ? constantParents[l] : id(parentIds[l], row.values[levelFields[l]]);
+                            levelBuilders[l].add(parentId, row.firstDay, row.sums);
+                        }
+                        if (cube != null) {
+                            System.arraycopy(row.values, 0, cell, 0, cubeDimensions);
+                            cube.add(row.firstDay, cell, row.sums);
+                        }
+                    }
+                    Map<String, CasesIndex> rollups = new HashMap<>();
+                    for (int l = 0; l < levels.size(); l++) rollups.put(levels.get(l).getKey(), levelBuilders[l].build());
+                    return new DatasetIndex(builder.build(), cube == null ? CasesCube.EMPTY : cube.build(), rollups, digests);
+                });
+    }
+
+    // Whether the previous index has everything an incremental build keeps the days of, otherwise the file is indexed in full
+    private static boolean isComplete(Dataset dataset, DatasetIndex previous) {
+        if (previous.getIndex().isEmpty() || dataset.isCube() && previous.getCube().isEmpty()) return false;
+        return dataset.getLevels().stream().allMatch(level -> previous.getLevel(level.getKey()) != null);
+    }
+
+    private static int fieldIndex(List<String> fields, String field) {
+        int index = fields.indexOf(field);
+        if (index >= 0) return index;
+        fields.add(field);
+        return fields.size() - 1;
+    }
+
+    // The days before fromDay are kept from the base, a full build has no base to keep anything from
+    private static CasesIndex.Builder builder(CasesIndex base, int fromDay) {
+        return fromDay == Integer.MIN_VALUE
+                ? CasesIndex.builder()
+                : CasesIndex.builder(base, fromDay);
+    }
+
+    // The ids in the target dictionary of the names of the parsed dictionary
+    private static int[] ids(NameDictionary parsed, NameDictionary target) {
+        int[] ids = new int[parsed.size()];
+        for (int id = 0; id < ids.length; id++) ids[id] = target.idOf(parsed.nameOf(id));
+        return ids;
+    }
+
+    private static int id(int[] ids, int parsedId) {
+        return parsedId < 0 ? -1 : ids[parsedId];
+    }
+
+    // The names of the field values are the key of a row, the parsed ids differ between downloads
+    private static DayDigests digests(List<Row> rows, NameDictionary[] dictionaries) {
+        int firstDay = Integer.MAX_VALUE;
+        int lastDay = Integer.MIN_VALUE;
+        for (Row row : rows) {
+            firstDay = Math.min(firstDay, row.firstDay);
+            lastDay = Math.max(lastDay, row.firstDay + row.sums.length - 1);
+        }
+        if (firstDay > lastDay) return DayDigests.EMPTY;
+        long[] digests = new long[lastDay - firstDay + 1];
+        for (Row row : rows) {
+            long key = 1;
+            for (int i = 0; i < row.values.length; i++) {
+                key = key * 31 + (row.values[i] < 0 ? 0 : dictionaries[i].nameOf(row.values[i]).hashCode());
+            }
+            int offset = row.firstDay - firstDay;
+            for (int day = 0; day < row.sums.length; day++) digests[offset + day] += DayDigests.digest(key, row.sums[day]);
+        }
+        return new DayDigests(firstDay, digests);
+    }
+
+    // Records per second is the rate of stats.ingest.records over the stats.ingest.parse time
+    private void aggregate(Dataset dataset, Path path, String[] fields, NameDictionary[] dictionaries, CasesParser.RowSink sink) {
+        // The sink is called on this thread only, also when the file is parsed in parallel
+        long records;
+        long start = System.nanoTime();
+        try {
+            records = new CasesParser(dataset.getDateField(), dataset.getValueField(), fields)
+                    .aggregate(path.toFile(), ForkJoinPool.commonPool(), dictionaries, sink);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        meterRegistry.timer("stats.ingest.parse", "dataset", dataset.getKey()).record(Duration.ofNanos(System.nanoTime() - start));
+        meterRegistry.counter("stats.ingest.records", "dataset", dataset.getKey()).increment(records);
+    }
+
+    private static final class Row {
+        private final int[] values;
+        private final int firstDay;
+        private final int[] sums;
+
+        private Row(int[] values, int firstDay, int[] sums) {
+            this.values = values;
+            this.firstDay = firstDay;
+            this.sums = sums;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package be.covid.stats.services;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * The Sciensano datasets every refresh downloads and indexes. Adding one is adding a descriptor to {@link #ALL}.
+ */
+public final class Datasets {
+    // The level of the municipalities the province endpoints read
+    public static final String PROVINCES = "provinces";
+    public static final Dataset AGE_SEX = Dataset.builder()
+            .key("AGE_SEX").file("COVID19BE_CASES_AGESEX.json")
+            .valueField("CASES").regionField("PROVINCE").cube(true).build();
+    // The French name and the NIS code resolve to the municipality of the record.
+    // Every coarser level sums the records by its own field, so all of them add up to the same totals.
+    public static final Dataset DATE_MUNI = Dataset.builder()
+            .key("DATE_MUNI").file("COVID19BE_CASES_MUNI.json")
+            .valueField("CASES").regionField("TX_DESCR_NL").aliasField("TX_DESCR_FR").aliasField("NIS5")
+            .regionLevel("municipalities")
+            .level(Dataset.Level.of("arrondissements", "TX_ADM_DSTR_DESCR_NL"))
+            .level(Dataset.Level.of(PROVINCES, "PROVINCE"))
+            .level(Dataset.Level.of("regions", "REGION"))
+            .level(Dataset.Level.all("country", "Belgium"))
+            .build();
+    public static final Dataset HOSP = Dataset.builder()
+            .key("HOSP").file("COVID19BE_HOSP.json")
+            .valueField("NEW_IN").regionField("PROVINCE").build();
+    public static final Dataset TESTS = Dataset.builder()
+            .key("TESTS").file("COVID19BE_tests.json")
+            .valueField("TESTS_ALL").regionField("PROVINCE").build();
+    public static final Dataset TESTS_POSITIVE = Dataset.builder()
+            .key("TESTS_POSITIVE").file("COVID19BE_tests.json")
+            .valueField("TESTS_ALL_POS").regionField("PROVINCE").build();
+    public static final Dataset VACC = Dataset.builder()
+            .key("VACC").file("COVID19BE_VACC.json")
+            .valueField("COUNT").regionField("REGION").build();
+
+    public static final List<Dataset> ALL = List.of(AGE_SEX, DATE_MUNI, HOSP, TESTS, TESTS_POSITIVE, VACC);
+
+    private Datasets() {
+    }
+
+    /**
+     * @return the dataset with the key, ignoring case and treating dashes as underscores, e.g. "tests-positive"
+     */
+    public static Optional<Dataset> find(String key) {
+        String normalized = key.replace('-', '_');
+        return ALL.stream().filter(dataset -> dataset.getKey().equalsIgnoreCase(normalized)).findFirst();
+    }
+
+    /**
+     * @return the datasets per file, in the order of {@link #ALL}
+     */
+    public static Map<String, List<Dataset>> byFile() {
+        return ALL.stream().collect(Collectors.groupingBy(Dataset::getFile, LinkedHashMap::new, Collectors.toList()));
+    }
+}
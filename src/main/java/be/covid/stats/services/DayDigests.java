@@ -0,0 +1,64 @@
+package be.covid.stats.services;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * One digest per day of the records of a file, independent of the order of the records, so two downloads
+ * of a file can be compared day by day without keeping the previous file.
+ */
+class DayDigests {
+    static final DayDigests EMPTY = new DayDigests(0, new long[0]);
+
+    private final int firstDay;
+    private final long[] digests;
+
+    DayDigests(int firstDay, long[] digests) {
+        this.firstDay = firstDay;
+        this.digests = digests;
+    }
+
+    /**
+     * @return the first day with other records than the previous digests, Integer.MAX_VALUE when every day is the same
+     */
+    int firstDifference(DayDigests previous) {
+        int from = Math.min(firstDay, previous.firstDay);
+        int to = Math.max(firstDay + digests.length, previous.firstDay + previous.digests.length);
+        for (int day = from; day < to; day++) {
+            if (digest(day) != previous.digest(day)) return day;
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private long digest(int day) {
+        int i = day - firstDay;
+        return i < 0 || i >= digests.length ? 0 : digests[i];
+    }
+
+    /**
+     * Mixes the key of a record with its value, records without a value leave the digest of the day unchanged.
+     */
+    static long digest(long key, int value) {
+        if (value == 0) return 0;
+        // Finalizer of SplitMix64, so the sums of the days do not cancel out for similar records
+        long z = key * 31 + value;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(firstDay);
+        out.writeInt(digests.length);
+        for (long digest : digests) out.writeLong(digest);
+    }
+
+    static DayDigests read(ByteBuffer in) {
+        int firstDay = in.getInt();
+        long[] digests = new long[in.getInt()];
+        in.asLongBuffer().get(digests);
+        in.position(in.position() + digests.length * Long.BYTES);
+        return new DayDigests(firstDay, digests);
+    }
+}
@@ -0,0 +1,111 @@
+package be.covid.stats.services;
+
+import java.util.Arrays;
+
+/**
+ * Case insensitive dictionary of names to dense int ids.
+ * Lookups work directly on the character buffer of the JSON parser, a String
+ * is only created the first time a name is seen.
+ * Not thread safe while names are added, read only use afterwards is.
+ */
+public class NameDictionary {
+    private String[] names = new String[16];
+    private int[] table = new int[32];
+    private int size;
+
+    public NameDictionary() {
+        Arrays.fill(table, -1);
+    }
+
+    /**
+     * @return the id of the name, adding it when it is not known yet
+     */
+    public int idOf(char[] chars, int offset, int length) {
+        int hash = hash(chars, offset, length);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = table[slot];
+            if (id < 0) {
+                return add(new String(chars, offset, length), slot);
+            }
+            if (matches(names[id], chars, offset, length)) {
+                return id;
+            }
+        }
+    }
+
+    public int idOf(String name) {
+        int id = find(name);
+        if (id >= 0) return id;
+        char[] chars = name.toCharArray();
+        return idOf(chars, 0, chars.length);
+    }
+
+    /**
+     * @return the id of the name, or -1 when it is unknown
+     */
+    public int find(String name) {
+        if (name == null) return -1;
+        int hash = hash(name);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = table[slot];
+            if (id < 0) return -1;
+            if (names[id].equalsIgnoreCase(name)) return id;
+        }
+    }
+
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int add(String name, int slot) {
+        if (size == names.length) names = Arrays.copyOf(names, size * 2);
+        names[size] = name;
+        table[slot] = size;
+        size++;
+        if (size * 2 > table.length) rehash();
+        return size - 1;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        Arrays.fill(table, -1);
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(names[id]) & mask;
+            while (table[slot] >= 0) slot = (slot + 1) & mask;
+            table[slot] = id;
+        }
+    }
+
+    private static boolean matches(String name, char[] chars, int offset, int length) {
+        if (name.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            char c = chars[offset + i];
+            char n = name.charAt(i);
+            if (c != n && Character.toLowerCase(c) != Character.toLowerCase(n)) return false;
+        }
+        return true;
+    }
+
+    private static int hash(char[] chars, int offset, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) h = 31 * h + Character.toLowerCase(chars[offset + i]);
+        return mix(h);
+    }
+
+    private static int hash(String name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) h = 31 * h + Character.toLowerCase(name.charAt(i));
+        return mix(h);
+    }
+
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+}
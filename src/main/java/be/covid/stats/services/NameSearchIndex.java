@@ -0,0 +1,93 @@
+package be.covid.stats.services;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.*;
+
+/**
+ * Autocomplete index over a fixed list of names.
+ * Names are normalized once (lower case, accents removed) and sorted, so prefix matches are a binary search.
+ * Other matches scan the precomputed normalized names, only the query is normalized per search.
+ * Results are ranked: exact match, prefix, start of a word, anywhere else; alphabetically within a rank.
+ */
+public class NameSearchIndex {
+    public static final NameSearchIndex EMPTY = new NameSearchIndex(List.of());
+
+    private final String[] names;
+    private final String[] normalized;
+
+    public NameSearchIndex(Collection<String> names) {
+        String[][] entries = names.stream()
+                .map(name -> new String[]{normalize(name), name})
+                .sorted(Comparator.comparing((String[] entry) -> entry[0]).thenComparing(entry -> entry[1]))
+                .toArray(String[][]::new);
+        this.normalized = new String[entries.length];
+        this.names = new String[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            normalized[i] = entries[i][0];
+            this.names[i] = entries[i][1];
+        }
+    }
+
+    public static String normalize(String value) {
+        return StringUtils.stripAccents(value).toLowerCase(Locale.ROOT).trim();
+    }
+
+    /**
+     * @param q     the query, null, blank or * return all names
+     * @param limit the maximum number of names, at least 1
+     */
+    public List<String> search(String q, int limit) {
+        if (limit < 1) throw new IllegalArgumentException("Invalid limit " + limit);
+        if (q == null || q.isBlank() || q.equals("*")) {
+            return Arrays.asList(names).subList(0, Math.min(limit, names.length));
+        }
+        String query = normalize(q);
+        List<String> result = new ArrayList<>(Math.min(limit, 16));
+
+        // Exact and prefix matches are one contiguous, sorted range
+        int start = lowerBound(query);
+        int end = start;
+        while (end < normalized.length && normalized[end].startsWith(query)) end++;
+        for (int i = start; i < end && result.size() < limit; i++) {
+            if (normalized[i].equals(query)) result.add(names[i]);
+        }
+        for (int i = start; i < end && result.size() < limit; i++) {
+            if (!normalized[i].equals(query)) result.add(names[i]);
+        }
+        if (result.size() >= limit) return result;
+
+        for (int i = 0; i < normalized.length && result.size() < limit; i++) {
+            if (i >= start && i < end) continue;
+            if (startsWord(normalized[i], query)) result.add(names[i]);
+        }
+        for (int i = 0; i < normalized.length && result.size() < limit; i++) {
+            if (i >= start && i < end) continue;
+            if (normalized[i].indexOf(query) > 0 && !startsWord(normalized[i], query)) result.add(names[i]);
+        }
+        return result;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    private int lowerBound(String query) {
+        int low = 0;
+        int high = normalized.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (normalized[mid].compareTo(query) < 0) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    // Matches after a space, dash or apostrophe, e.g. "Sint-Niklaas" for "nik"
+    private static boolean startsWord(String name, String query) {
+        for (int from = name.indexOf(query, 1); from > 0; from = name.indexOf(query, from + 1)) {
+            if (!Character.isLetterOrDigit(name.charAt(from - 1))) return true;
+        }
+        return false;
+    }
+}
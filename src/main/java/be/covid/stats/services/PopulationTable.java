@@ -0,0 +1,75 @@
+package be.covid.stats.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Population per region, read from the population.csv bundled with the application.
+ */
+public class PopulationTable {
+    public static final String COUNTRY = "Belgium";
+    private static final String RESOURCE = "/population.csv";
+    private static final PopulationTable BUNDLED = read(PopulationTable.class.getResourceAsStream(RESOURCE));
+
+    private final NameDictionary names;
+    private final long[] populations;
+
+    private PopulationTable(NameDictionary names, long[] populations) {
+        this.names = names;
+        this.populations = populations;
+    }
+
+    public static PopulationTable bundled() {
+        return BUNDLED;
+    }
+
+    /**
+     * @param in lines of name;population, blank lines and lines starting with # are skipped
+     */
+    static PopulationTable read(InputStream in) {
+        if (in == null) throw new IllegalStateException("Missing " + RESOURCE);
+        NameDictionary names = new NameDictionary();
+        long[] populations = new long[16];
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                int separator = line.lastIndexOf(';');
+                int id = names.idOf(line.substring(0, separator).trim());
+                if (id >= populations.length) populations = Arrays.copyOf(populations, populations.length * 2);
+                populations[id] = Long.parseLong(line.substring(separator + 1).trim());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new PopulationTable(names, Arrays.copyOf(populations, names.size()));
+    }
+
+    /**
+     * @return the population of the region, case insensitive, or 0 when it is unknown
+     */
+    public long population(String region) {
+        int id = names.find(region);
+        return id < 0 ? 0 : populations[id];
+    }
+
+    /**
+     * Resolves every name of the table against the regions and aliases of the index.
+     *
+     * @return the population per region id of the index, 0 for the regions that are not in the table
+     */
+    public long[] populations(CasesIndex index) {
+        long[] result = new long[index.getRegions().size()];
+        for (int id = 0; id < names.size(); id++) {
+            int region = index.regionId(names.nameOf(id));
+            if (region >= 0) result[region] = populations[id];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,82 @@
+package be.covid.stats.services;
+
+import java.time.LocalDate;
+
+/**
+ * The share of positive tests of the 7 days up to a day, from the indexes of the tests and of the positive tests.
+ * Like {@link CasesMetrics}, the rates are computed once per snapshot with a sliding window.
+ * Positive tests are matched to the tests by region name.
+ */
+public class PositivityRates {
+    private static final Rates NONE = new Rates(0, new int[0], 0, new int[0]);
+
+    private final CasesIndex tests;
+    private final Rates total;
+    private final Rates[] perRegion;
+
+    public PositivityRates(CasesIndex tests, CasesIndex positives) {
+        this.tests = tests;
+        this.total = new Rates(tests.getFirstDay(), tests.dailyTotals(), positives.getFirstDay(), positives.dailyTotals());
+        this.perRegion = new Rates[tests.getRegions().size()];
+        for (int id = 0; id < perRegion.length; id++) {
+            int positive = positives.regionId(tests.regionName(id));
+            perRegion[id] = new Rates(tests.getFirstDay(), tests.daily(id),
+                    positives.getFirstDay(), positive < 0 ? new int[0] : positives.daily(positive));
+        }
+    }
+
+    /**
+     * @return the rates of all regions together
+     */
+    public Rates total() {
+        return total;
+    }
+
+    /**
+     * @return the rates of the region, case insensitive, without values when it is unknown
+     */
+    public Rates region(String region) {
+        int id = tests.regionId(region);
+        return id < 0 ? NONE : perRegion[id];
+    }
+
+    /**
+     * The rates of one region per day. Days outside the tests index and weeks without tests are NaN.
+     */
+    public static class Rates {
+        private final int firstDay;
+        private final float[] rates;
+
+        private Rates(int firstDay, int[] tests, int positivesFirstDay, int[] positives) {
+            this.firstDay = firstDay;
+            this.rates = new float[tests.length];
+            // Day i of the tests is day i - offset of the positive tests
+            int offset = positivesFirstDay - firstDay;
+            long weekTests = 0;
+            long weekPositives = 0;
+            for (int day = 0; day < tests.length; day++) {
+                weekTests += tests[day];
+                weekPositives += valueAt(positives, day - offset);
+                if (day >= 7) {
+                    weekTests -= tests[day - 7];
+                    weekPositives -= valueAt(positives, day - 7 - offset);
+                }
+                rates[day] = weekTests > 0 ? weekPositives / (float) weekTests : Float.NaN;
+            }
+        }
+
+        private static int valueAt(int[] values, int day) {
+            return day < 0 || day >= values.length ? 0 : values[day];
+        }
+
+        /**
+         * @return the positive tests of the 7 days up to and including the date over all tests of those days,
+         * e.g. 0.05 for 5% positive
+         */
+        public float rate(LocalDate date) {
+            long day = date.toEpochDay() - firstDay;
+            if (day < 0 || day >= rates.length) return Float.NaN;
+            return rates[(int) day];
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package be.covid.stats.services;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Downloads Sciensano files, conditionally: the ETag and Last-Modified of the last download
+ * of a file are sent along, so an unchanged file costs a 304 instead of a full download.
+ * Files are downloaded and stored gzip compressed, the {@link CasesParser} decompresses them while parsing.
+ */
+@Component
+public class SciensanoClient {
+    private static final Logger log = LoggerFactory.getLogger(SciensanoClient.class);
+
+    private static final String GZIP = "gzip";
+
+    private final Map<String, Validators> validators = new ConcurrentHashMap<>();
+    private final WebClient webClient;
+    private final MeterRegistry meterRegistry;
+    private final Scheduler ingestScheduler;
+
+    public SciensanoClient(WebClient.Builder webClientBuilder, MeterRegistry meterRegistry, Scheduler ingestScheduler,
+                           @Value("${stats.sciensano.base-url}") String baseUrl) {
+        this.webClient = webClientBuilder.baseUrl(StringUtils.removeEnd(baseUrl, "/")).build();
+        this.meterRegistry = meterRegistry;
+        this.ingestScheduler = ingestScheduler;
+    }
+
+    /**
+     * Downloads the file gzip compressed into the given path, without blocking: a compressed body is streamed
+     * as is into an AsynchronousFileChannel and the next buffer is only requested once the previous one is written.
+     * The body of a server that does not compress is compressed while it is written, on the ingest scheduler.
+     *
+     * @return false when the file did not change since the last download, the path is left untouched then
+     */
+    public Mono<Boolean> download(String file, Path path) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return download(file, path, validators.get(file))
+                    .doOnSuccess(changed -> sample.stop(timer(file, changed ? "modified" : "not_modified")))
+                    .doOnError(e -> sample.stop(timer(file, "error")));
+        });
+    }
+
+    private Mono<Boolean> download(String file, Path path, Validators previous) {
+        return webClient.get()
+                .uri("/{file}", file)
+                .accept(MediaType.APPLICATION_OCTET_STREAM, MediaType.ALL)
+                .headers(headers -> {
+                    // Set by hand, so the client leaves the body compressed
+                    headers.set(HttpHeaders.ACCEPT_ENCODING, GZIP);
+                    if (previous != null) {
+                        if (previous.etag != null) headers.setIfNoneMatch(previous.etag);
+                        if (previous.lastModified > 0) headers.setIfModifiedSince(previous.lastModified);
+                    }
+                })
+                .exchangeToMono(response -> {
+                    if (response.statusCode() == HttpStatus.NOT_MODIFIED) {
+                        log.info(file + " not modified");
+                        return response.releaseBody().thenReturn(false);
+                    }
+                    if (response.statusCode().isError()) {
+                        return response.createException().flatMap(Mono::error);
+                    }
+                    Validators next = new Validators(response.headers().asHttpHeaders().getETag(),
+                            response.headers().asHttpHeaders().getLastModified());
+                    // Buffers are written one after the other, no need for an atomic count
+                    long[] bytes = {0};
+                    Flux<DataBuffer> body = response.bodyToFlux(DataBuffer.class)
+                            .doOnNext(buffer -> bytes[0] += buffer.readableByteCount());
+                    boolean compressed = GZIP.equalsIgnoreCase(response.headers().asHttpHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+                    Mono<Void> written = compressed
+                            ? DataBufferUtils.write(body, path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                            : compress(body, path);
+                    return written.then(Mono.fromCallable(() -> {
+                                validators.put(file, next);
+                                DistributionSummary.builder("stats.download.size")
+                                        .baseUnit("bytes")
+                                        .tag("file", file)
+                                        .register(meterRegistry)
+                                        .record(bytes[0]);
+                                return true;
+                            }));
+                });
+    }
+
+    // The gzip trailer is written when the stream is closed, before the download completes
+    private Mono<Void> compress(Flux<DataBuffer> body, Path path) {
+        return Mono.using(() -> new GZIPOutputStream(Files.newOutputStream(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), 1 << 16),
+                out -> DataBufferUtils.write(body.publishOn(ingestScheduler), out)
+                        .map(DataBufferUtils::release)
+                        .then(),
+                SciensanoClient::close);
+    }
+
+    private static void close(OutputStream out) {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Timer timer(String file, String outcome) {
+        return meterRegistry.timer("stats.download", "file", file, "outcome", outcome);
+    }
+
+    /**
+     * Forgets the validators of the file, the next download is unconditional.
+     * Used when a downloaded file could not be ingested.
+     */
+    public void reset(String file) {
+        validators.remove(file);
+    }
+
+    private static class Validators {
+        private final String etag;
+        private final long lastModified;
+
+        private Validators(String etag, long lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+}
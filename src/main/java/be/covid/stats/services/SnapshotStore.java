@@ -0,0 +1,165 @@
+package be.covid.stats.services;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps the last published snapshot on disk in a binary layout, so a restart serves the previous
+ * data right away instead of waiting for the downloads. The file is memory mapped on load and the
+ * counts are bulk copied into the index arrays, nothing is parsed.
+ * Disabled when no path is configured.
+ * When the path is shared between nodes, the node holding the lock file next to it is the leader: it
+ * downloads and stores the snapshots, the others only load them. The lock is released when the leader
+ * stops, the next node that tries takes over.
+ */
+@Component
+public class SnapshotStore {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotStore.class);
+    private static final int MAGIC = 0x434F5644;
+    // Bump when the layout changes, files of another version are ignored
+    private static final int FORMAT_VERSION = 6;
+
+    private final Path path;
+    private final boolean shared;
+    private FileChannel lockChannel;
+    private FileLock lock;
+
+    public SnapshotStore(@Value("${stats.snapshot.path:}") String path,
+                         @Value("${stats.snapshot.shared:false}") boolean shared) {
+        this.path = StringUtils.isBlank(path) ? null : Paths.get(path).toAbsolutePath();
+        this.shared = shared && this.path != null;
+    }
+
+    /**
+     * Takes the lead when no other node has it. Without a shared path every node leads.
+     *
+     * @return whether this node builds the snapshots
+     */
+    public synchronized boolean lead() {
+        if (!shared) return true;
+        if (lock != null && lock.isValid()) return true;
+        try {
+            if (lockChannel == null) {
+                Files.createDirectories(path.getParent());
+                lockChannel = FileChannel.open(path.resolveSibling(path.getFileName() + ".lock"),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another store of this JVM
+            lock = null;
+        } catch (IOException e) {
+            log.warn("Could not lock snapshot file " + path, e);
+            lock = null;
+        }
+        if (lock != null) log.info("Leading the snapshots of " + path);
+        return lock != null;
+    }
+
+    // Hands the lead over right away instead of when the process ends
+    @PreDestroy
+    public synchronized void release() throws IOException {
+        if (lockChannel != null) lockChannel.close();
+        lockChannel = null;
+        lock = null;
+    }
+
+    /**
+     * Reads the version in the header first, the file is only loaded when it is newer.
+     *
+     * @return the stored snapshot when its version is above the given one
+     */
+    public Optional<StatsSnapshot> loadNewer(long version) {
+        if (path == null || !Files.isRegularFile(path)) return Optional.empty();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES + Long.BYTES);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < header.capacity() || header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION
+                    || header.getLong() <= version) {
+                return Optional.empty();
+            }
+        } catch (IOException e) {
+            log.warn("Could not read snapshot file " + path, e);
+            return Optional.empty();
+        }
+        return load().filter(stored -> stored.getVersion() > version);
+    }
+
+    /**
+     * @return the stored snapshot, empty when there is none or it can not be read
+     */
+    public Optional<StatsSnapshot> load() {
+        if (path == null || !Files.isRegularFile(path)) return Optional.empty();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+                log.warn("Ignoring snapshot file " + path + " of another format");
+                return Optional.empty();
+            }
+            long version = in.getLong();
+            Instant createdAt = Instant.ofEpochMilli(in.getLong());
+            int count = in.getInt();
+            Map<String, DatasetIndex> datasets = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[in.getInt()];
+                in.get(key);
+                datasets.put(new String(key, StandardCharsets.UTF_8), DatasetIndex.read(in));
+            }
+            return Optional.of(new StatsSnapshot(version, datasets, createdAt));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not load snapshot file " + path, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes to a temporary file first and moves it in place, a crash never leaves a partial snapshot behind.
+     */
+    public void save(StatsSnapshot snapshot) throws IOException {
+        if (path == null) return;
+        Files.createDirectories(path.getParent());
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(snapshot.getVersion());
+                out.writeLong(snapshot.getCreatedAt().toEpochMilli());
+                out.writeInt(snapshot.getDatasets().size());
+                for (Map.Entry<String, DatasetIndex> dataset : snapshot.getDatasets().entrySet()) {
+                    byte[] key = dataset.getKey().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(key.length);
+                    out.write(key);
+                    dataset.getValue().write(out);
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
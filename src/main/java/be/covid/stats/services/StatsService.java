@@ -1,21 +1,141 @@
 package be.covid.stats.services;
 
+import be.covid.stats.data.CasesGroupDTO;
+import be.covid.stats.data.CasesMatrixDTO;
+import be.covid.stats.data.CasesMetricsDTO;
 import be.covid.stats.data.CasesPerDayDTO;
+import be.covid.stats.data.CasesTotalDTO;
+import be.covid.stats.data.DateRange;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 
 public interface StatsService {
 
     void preloadCache() throws IOException;
 
+    void refresh();
+
     Flux<CasesPerDayDTO> getCasesPerDay(int maxDays);
 
     Flux<CasesPerDayDTO> getCasesPerDayForMunicipality(int maxDays, String municipality);
 
     Flux<CasesPerDayDTO> getCasesPerDayForProvince(int maxDays, String province);
 
+    /**
+     * @param window 1 for the cases of each day, otherwise the sum of the window days up to each day
+     */
+    Flux<CasesPerDayDTO> getCasesPerDay(DateRange range, int window);
+
+    Flux<CasesPerDayDTO> getCasesPerDayForMunicipality(DateRange range, int window, String municipality);
+
+    Flux<CasesPerDayDTO> getCasesPerDayForProvince(DateRange range, int window, String province);
+
+    /**
+     * @param municipalities the municipalities of the matrix, all of them when it is * or empty.
+     *                       The rows are the ones of {@link #resolveMunicipalities(List)}.
+     */
+    Mono<CasesMatrixDTO> getCasesPerDayForMunicipalities(DateRange range, int window, List<String> municipalities);
+
+    Mono<CasesMatrixDTO> getCasesPerDayForProvinces(DateRange range, int window, List<String> provinces);
+
+    /**
+     * @return the names of the rows of a matrix: names and aliases resolved to the name of their region, once each
+     * and sorted, unknown names as they are. A single * when the matrix has all regions.
+     */
+    List<String> resolveMunicipalities(List<String> municipalities);
+
+    List<String> resolveProvinces(List<String> provinces);
+
+    /**
+     * @return the name of the region a name or alias resolves to, unknown names in lower case,
+     * so every spelling of a region is the same response
+     */
+    String resolveMunicipality(String municipality);
+
+    String resolveProvince(String province);
+
+    /**
+     * @return the cases of every day with the 7 day average, 14 day incidence, week over week growth
+     * and 7 day test positivity up to that day
+     */
+    Flux<CasesMetricsDTO> getMetrics(DateRange range);
+
+    Flux<CasesMetricsDTO> getMetricsForProvince(DateRange range, String province);
+
+    Mono<CasesTotalDTO> getTotal(DateRange range);
+
+    Mono<CasesTotalDTO> getTotalForMunicipality(DateRange range, String municipality);
+
+    Mono<CasesTotalDTO> getTotalForProvince(DateRange range, String province);
+
+    /**
+     * @param filter the value per dimension the cases must have, case insensitive. Absent dimensions are not filtered.
+     */
+    Flux<CasesPerDayDTO> getCasesPerDay(DateRange range, int window, Map<CasesCube.Dimension, String> filter);
+
+    Mono<CasesTotalDTO> getTotal(DateRange range, Map<CasesCube.Dimension, String> filter);
+
+    /**
+     * @return the total of the filtered cases per value of the group dimension
+     */
+    Flux<CasesGroupDTO> getTotalsGroupedBy(DateRange range, CasesCube.Dimension group, Map<CasesCube.Dimension, String> filter);
+
+    /**
+     * @return the daily values of a dataset, summed over window days like {@link #getCasesPerDay(DateRange, int)}
+     */
+    Flux<CasesPerDayDTO> getPerDay(Dataset dataset, DateRange range, int window);
+
+    Flux<CasesPerDayDTO> getPerDayForRegion(Dataset dataset, DateRange range, int window, String region);
+
+    String resolveRegion(Dataset dataset, String region);
+
+    Mono<CasesTotalDTO> getTotal(Dataset dataset, DateRange range);
+
+    /**
+     * @return the regions of the dataset, sorted
+     */
+    Flux<String> getRegions(Dataset dataset);
+
+    /**
+     * The regions of a dataset rolled up to a level of its hierarchy, e.g. the provinces of the municipalities.
+     * Every level is rolled up from the same records once, so the levels always add up to the same totals.
+     *
+     * @param level one of {@link Dataset#levelKeys()}
+     */
+    Flux<CasesPerDayDTO> getPerDayForRegion(Dataset dataset, String level, DateRange range, int window, String region);
+
+    Mono<CasesMatrixDTO> getPerDayForRegions(Dataset dataset, String level, DateRange range, int window, List<String> regions);
+
+    List<String> resolveRegions(Dataset dataset, String level, List<String> regions);
+
+    String resolveRegion(Dataset dataset, String level, String region);
+
+    Mono<CasesTotalDTO> getTotalForRegion(Dataset dataset, String level, DateRange range, String region);
+
+    /**
+     * @return the regions of the level of the dataset, sorted
+     */
+    Flux<String> getRegions(Dataset dataset, String level);
+
+    /**
+     * @return the totals of the last day of every published snapshot, starting with the current one. Never completes.
+     */
+    Flux<CasesPerDayDTO> getUpdates();
+
+    Flux<String> getValues(CasesCube.Dimension dimension);
+
     Flux<String> getProvinces(String q);
 
+    /**
+     * @return at most limit provinces matching q, best matches first
+     */
+    Flux<String> getProvinces(String q, int limit);
+
     Flux<String> getMunicipalities(String q);
+
+    Flux<String> getMunicipalities(String q, int limit);
 }
@@ -0,0 +1,73 @@
+package be.covid.stats.services;
+
+import lombok.Getter;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Immutable view on the downloaded datasets. A refresh builds a complete new snapshot
+ * off the request path and publishes it in one go, requests always read a consistent one.
+ */
+@Getter
+public class StatsSnapshot {
+    public static final StatsSnapshot EMPTY = new StatsSnapshot(0, Map.of(), Instant.EPOCH);
+
+    private final long version;
+    // Per dataset key, datasets that were never indexed are absent
+    private final Map<String, DatasetIndex> datasets;
+    private final Instant createdAt;
+    private final NameSearchIndex provinceNames;
+    private final NameSearchIndex municipalityNames;
+    private final CasesMetrics countryMetrics;
+    private final CasesMetrics provinceMetrics;
+    private final PositivityRates positivity;
+
+    public StatsSnapshot(long version, Map<String, DatasetIndex> datasets, Instant createdAt) {
+        this.version = version;
+        this.datasets = Map.copyOf(datasets);
+        this.createdAt = createdAt;
+        this.provinceNames = new NameSearchIndex(getProvinces().getRegions());
+        this.municipalityNames = new NameSearchIndex(getMunicipalities().getRegions());
+        PopulationTable populationTable = PopulationTable.bundled();
+        long countryPopulation = populationTable.population(PopulationTable.COUNTRY);
+        this.countryMetrics = new CasesMetrics(getAgeSex(), populationTable, countryPopulation);
+        this.provinceMetrics = new CasesMetrics(getProvinces(), populationTable, countryPopulation);
+        this.positivity = new PositivityRates(getDataset(Datasets.TESTS).getIndex(), getDataset(Datasets.TESTS_POSITIVE).getIndex());
+    }
+
+    /**
+     * @return the indexes of the dataset, empty when it was never indexed
+     */
+    public DatasetIndex getDataset(String key) {
+        return datasets.getOrDefault(key, DatasetIndex.EMPTY);
+    }
+
+    public DatasetIndex getDataset(Dataset dataset) {
+        return getDataset(dataset.getKey());
+    }
+
+    public CasesIndex getAgeSex() {
+        return getDataset(Datasets.AGE_SEX).getIndex();
+    }
+
+    public CasesCube getAgeSexCube() {
+        return getDataset(Datasets.AGE_SEX).getCube();
+    }
+
+    public CasesIndex getMunicipalities() {
+        return getDataset(Datasets.DATE_MUNI).getIndex();
+    }
+
+    /**
+     * @return the municipalities rolled up to their provinces, so the provinces add up like every other level
+     */
+    public CasesIndex getProvinces() {
+        CasesIndex provinces = getDataset(Datasets.DATE_MUNI).getLevel(Datasets.PROVINCES);
+        return provinces == null ? CasesIndex.EMPTY : provinces;
+    }
+
+    public boolean isEmpty() {
+        return version == 0;
+    }
+}
@@ -0,0 +1,47 @@
+package be.covid.stats.controllers;
+
+import be.covid.stats.services.CachedStatsService;
+import be.covid.stats.services.SciensanoClient;
+import be.covid.stats.services.SnapshotStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ResponseCacheTest {
+    private static final int MAX_RENDERS = 2;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CachedStatsService service = new CachedStatsService(
+            new SciensanoClient(WebClient.builder(), meterRegistry, Schedulers.boundedElastic(), "http://localhost:1/Data"),
+            new SnapshotStore(null, false), meterRegistry, Schedulers.boundedElastic());
+    private final ResponseCache responseCache = new ResponseCache(service, new ObjectMapper(), meterRegistry,
+            Duration.ofMinutes(5), MAX_RENDERS, Duration.ofSeconds(5), DataSize.ofMegabytes(1), DataSize.ofKilobytes(64));
+
+    @Test
+    void failedRendersReleaseTheirPermit() {
+        for (int i = 0; i < MAX_RENDERS * 3; i++) {
+            String key = "failing " + i;
+            // Thrown by the body itself, as argument checks do, and signalled as an error
+            assertThrows(IllegalArgumentException.class, () -> responseCache.json(key, () -> {
+                throw new IllegalArgumentException("Invalid");
+            }).block());
+            assertThrows(IllegalStateException.class, () -> responseCache.json(key + " signalled",
+                    () -> Mono.error(new IllegalStateException("Failed"))).block());
+        }
+
+        assertEquals(HttpStatus.OK, responseCache.json("ok", () -> Mono.just(List.of(1))).block().getStatusCode());
+        assertEquals(0, meterRegistry.counter("stats.http.rejected", "reason", "overloaded").count());
+    }
+}
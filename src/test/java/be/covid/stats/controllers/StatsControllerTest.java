@@ -0,0 +1,175 @@
+package be.covid.stats.controllers;
+
+import be.covid.stats.data.CasesPerDayDTO;
+import be.covid.stats.services.CachedStatsService;
+import be.covid.stats.services.SciensanoClient;
+import be.covid.stats.services.SnapshotStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StatsControllerTest {
+    private static final String DAYS = "/api/stats/day?from=2020-03-01&to=2020-03-03";
+    private static final int MAX_RENDERS = 2;
+
+    private HttpServer server;
+    private volatile String dataset = "initial";
+    private CachedStatsService service;
+    private ResponseCache responseCache;
+    private WebTestClient client;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        // Serves the fixtures of the current dataset
+        server.createContext("/Data/", exchange -> {
+            String file = exchange.getRequestURI().getPath().substring("/Data/".length());
+            try (InputStream in = getClass().getResourceAsStream("/sciensano/" + dataset + "/" + file)) {
+                byte[] body = in.readAllBytes();
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        service = new CachedStatsService(new SciensanoClient(WebClient.builder(), meterRegistry, Schedulers.boundedElastic(),
+                "http://localhost:" + server.getAddress().getPort() + "/Data"),
+                new SnapshotStore(null, false), meterRegistry, Schedulers.boundedElastic());
+        responseCache = new ResponseCache(service, new ObjectMapper(), meterRegistry,
+                Duration.ofMinutes(5), MAX_RENDERS, Duration.ofSeconds(5), DataSize.ofMegabytes(1), DataSize.ofKilobytes(64));
+        client = WebTestClient.bindToController(new StatsController(service, responseCache))
+                .webFilter(new SnapshotAdmissionFilter(service, meterRegistry, Duration.ofSeconds(5)))
+                .build();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void seriesAreRenderedInTheAcceptedType() {
+        service.refresh();
+
+        client.get().uri(DAYS).accept(MediaType.APPLICATION_JSON).exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON)
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(3)
+                .jsonPath("$[0].date").isEqualTo("2020-03-01")
+                .jsonPath("$[2].total").isEqualTo(8);
+
+        // Streaming clients get one row per line or per event
+        for (MediaType type : List.of(MediaType.APPLICATION_NDJSON, MediaType.TEXT_EVENT_STREAM)) {
+            Flux<CasesPerDayDTO> rows = client.get().uri(DAYS).accept(type).exchange()
+                    .expectStatus().isOk()
+                    .expectHeader().contentTypeCompatibleWith(type)
+                    .returnResult(CasesPerDayDTO.class)
+                    .getResponseBody();
+            assertEquals(List.of("2020-03-01=3", "2020-03-02=4", "2020-03-03=8"), rows
+                    .map(row -> row.getDate() + "=" + row.getTotal())
+                    .collectList().block(Duration.ofSeconds(10)), type.toString());
+        }
+    }
+
+    @Test
+    void liveChannelPushesEveryRefresh() {
+        service.refresh();
+
+        Flux<ServerSentEvent<CasesPerDayDTO>> events = client.get().uri("/api/stats/live")
+                .accept(MediaType.TEXT_EVENT_STREAM).exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM)
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<CasesPerDayDTO>>() {
+                })
+                .getResponseBody();
+
+        // The refresh runs while the channel listens, publishing used to deadlock against it
+        List<ServerSentEvent<CasesPerDayDTO>> received = events.take(2)
+                .doOnNext(event -> {
+                    if (event.data().getDate().equals("2020-03-03")) {
+                        dataset = "update";
+                        Schedulers.boundedElastic().schedule(service::refresh);
+                    }
+                })
+                .collectList().block(Duration.ofSeconds(30));
+
+        assertEquals(List.of("2020-03-03", "2020-03-04"), received.stream().map(ServerSentEvent::id).collect(Collectors.toList()));
+        assertEquals("day", received.get(1).event());
+        assertEquals(6, received.get(1).data().getTotal());
+    }
+
+    @Test
+    void requestsWaitForTheFirstSnapshot() {
+        client.get().uri(DAYS).exchange()
+                .expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+                .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "5")
+                .expectBody().isEmpty();
+
+        service.refresh();
+
+        client.get().uri(DAYS).exchange().expectStatus().isOk();
+    }
+
+    @Test
+    void unchangedResponsesAreRevalidatedWithTheirETag() {
+        service.refresh();
+
+        String etag = client.get().uri(DAYS).accept(MediaType.APPLICATION_JSON).exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(HttpHeaders.ETAG)
+                .expectBody().returnResult()
+                .getResponseHeaders().getETag();
+
+        client.get().uri(DAYS).accept(MediaType.APPLICATION_JSON).ifNoneMatch(etag).exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, etag)
+                .expectBody().isEmpty();
+        client.get().uri(DAYS).accept(MediaType.APPLICATION_JSON).ifNoneMatch("\"other\"").exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    void rendersBeyondTheBoundAreShed() {
+        service.refresh();
+        // Renders that never complete hold every permit
+        for (int i = 0; i < MAX_RENDERS; i++) {
+            responseCache.json("held " + i, Mono::never).subscribe();
+        }
+
+        client.get().uri(DAYS).accept(MediaType.APPLICATION_JSON).exchange()
+                .expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+                .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "5");
+        // Streamed rows are not rendered into the cache, so they do not need a permit
+        client.get().uri(DAYS).accept(MediaType.APPLICATION_NDJSON).exchange()
+                .expectStatus().isOk();
+    }
+}
@@ -0,0 +1,35 @@
+package be.covid.stats.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DateRangeTest {
+    private static final LocalDate DAY = LocalDate.parse("2020-03-01");
+
+    @Test
+    void rangesStartDaysBeforeTheirEnd() {
+        DateRange range = DateRange.of(null, DAY, 14);
+
+        assertEquals(LocalDate.parse("2020-02-17"), range.getFrom());
+        assertEquals(14, range.length());
+    }
+
+    @Test
+    void invalidRangesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> DateRange.of(null, DAY, 0));
+        assertThrows(IllegalArgumentException.class, () -> DateRange.of(DAY, DAY.minusDays(1), 14));
+        assertThrows(IllegalArgumentException.class, () -> DateRange.of(DAY, DAY.plusDays(DateRange.MAX_DAYS + 1), 14));
+    }
+
+    @Test
+    void daysBeyondTheIntEpochDaysAreRejected() {
+        LocalDate far = LocalDate.of(6_000_000, 1, 1);
+
+        assertThrows(IllegalArgumentException.class, () -> DateRange.of(far, far, 1));
+        assertThrows(IllegalArgumentException.class, () -> DateRange.of(null, LocalDate.of(-6_000_000, 1, 1), 1));
+    }
+}
@@ -0,0 +1,346 @@
+package be.covid.stats.services;
+
+import be.covid.stats.data.CasesMatrixDTO;
+import be.covid.stats.data.CasesMetricsDTO;
+import be.covid.stats.data.CasesPerDayDTO;
+import be.covid.stats.data.DateRange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class CachedStatsServiceTest {
+    private HttpServer server;
+    private volatile String dataset = "initial";
+    // Whether the server gzip encodes the files for clients that accept it
+    private volatile boolean compress = true;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private CachedStatsService service;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        // Serves the fixtures of the current dataset, with the dataset name as ETag
+        server.createContext("/Data/", exchange -> {
+            requests.incrementAndGet();
+            String etag = "\"" + dataset + "\"";
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            String file = exchange.getRequestURI().getPath().substring("/Data/".length());
+            try (InputStream in = getClass().getResourceAsStream("/sciensano/" + dataset + "/" + file)) {
+                byte[] body = in.readAllBytes();
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if (compress && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    try (OutputStream out = new GZIPOutputStream(compressed)) {
+                        out.write(body);
+                    }
+                    body = compressed.toByteArray();
+                    exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                }
+                exchange.getResponseHeaders().add("ETag", etag);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+
+        String baseUrl = "http://localhost:" + server.getAddress().getPort() + "/Data";
+        service = service(baseUrl, new SnapshotStore(null, false));
+    }
+
+    private static CachedStatsService service(String baseUrl, SnapshotStore snapshotStore) {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        return new CachedStatsService(new SciensanoClient(WebClient.builder(), meterRegistry, Schedulers.boundedElastic(), baseUrl),
+                snapshotStore, meterRegistry, Schedulers.boundedElastic());
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void refreshIndexesBothDatasets() {
+        service.refresh();
+
+        StatsSnapshot snapshot = service.getSnapshot();
+        assertEquals(1, snapshot.getVersion());
+        assertEquals(3, snapshot.getAgeSex().total(LocalDate.parse("2020-03-01")));
+        assertEquals(8, snapshot.getAgeSex().total(LocalDate.parse("2020-03-03")));
+        assertEquals(5, snapshot.getAgeSex().total("antwerpen", LocalDate.parse("2020-03-03")));
+        assertEquals(0, snapshot.getMunicipalities().total("Antwerpen", LocalDate.parse("2020-03-01")));
+        assertEquals(15, snapshot.getMunicipalities().total("Antwerpen", LocalDate.parse("2020-03-03")));
+    }
+
+    @Test
+    void uncompressedFilesAreCompressedWhileDownloaded() {
+        compress = false;
+        service.refresh();
+
+        StatsSnapshot snapshot = service.getSnapshot();
+        assertEquals(8, snapshot.getAgeSex().total(LocalDate.parse("2020-03-03")));
+        assertEquals(15, snapshot.getMunicipalities().total("Antwerpen", LocalDate.parse("2020-03-03")));
+    }
+
+    @Test
+    void refreshesPushTheLastDayToSubscribers() {
+        service.refresh();
+        dataset = "update";
+        service.refresh();
+
+        CasesPerDayDTO last = service.getUpdates().blockFirst();
+        assertEquals("2020-03-04", last.getDate());
+        assertEquals(6, last.getTotal());
+    }
+
+    @Test
+    void refreshesCompleteWhileSubscribersListen() {
+        List<CasesPerDayDTO> received = new CopyOnWriteArrayList<>();
+        service.getUpdates().subscribe(received::add);
+
+        // Publishing used to wait for the monitor the refreshing thread holds while it blocks
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> service.refresh());
+        dataset = "update";
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> service.refresh());
+
+        assertEquals(2, service.getSnapshot().getVersion());
+        assertEquals(List.of("2020-03-03", "2020-03-04"), received.stream().map(CasesPerDayDTO::getDate).collect(Collectors.toList()));
+    }
+
+    @Test
+    void rangesAreSummedFromPrefixSums() {
+        service.refresh();
+        DateRange range = new DateRange(LocalDate.parse("2020-02-28"), LocalDate.parse("2020-03-02"));
+
+        assertEquals(7, service.getTotal(range).block().getTotal());
+        // A day 2^32 days later must not wrap around into the index
+        LocalDate wrapped = LocalDate.ofEpochDay(LocalDate.parse("2020-03-01").toEpochDay() + (1L << 32));
+        assertEquals(0, service.getSnapshot().getAgeSex().total(wrapped));
+        assertEquals(0, service.getSnapshot().getAgeSex().sum(wrapped, wrapped));
+        assertEquals(12, service.getTotalForMunicipality(range, "Antwerpen").block().getTotal());
+        assertEquals(List.of(12, 27), service.getCasesPerDayForProvince(
+                        new DateRange(LocalDate.parse("2020-03-02"), LocalDate.parse("2020-03-03")), 2, "Antwerpen")
+                .map(CasesPerDayDTO::getTotal).collectList().block());
+    }
+
+    @Test
+    void regionsAreQueriedInOneMatrix() {
+        service.refresh();
+        DateRange range = new DateRange(LocalDate.parse("2020-03-01"), LocalDate.parse("2020-03-03"));
+
+        CasesMatrixDTO all = service.getCasesPerDayForMunicipalities(range, 1, List.of("*")).block();
+        assertEquals(List.of("Antwerpen", "Namen"), all.getRegions());
+        assertArrayEquals(new int[]{0, 12, 15}, all.getTotals()[0]);
+        assertArrayEquals(new int[]{7, 0, 0}, all.getTotals()[1]);
+
+        CasesMatrixDTO some = service.getCasesPerDayForMunicipalities(range, 2, List.of("anvers", "Atlantis")).block();
+        assertEquals(List.of("Antwerpen", "Atlantis"), some.getRegions());
+        assertArrayEquals(new int[]{0, 12, 27}, some.getTotals()[0]);
+        assertArrayEquals(new int[]{0, 0, 0}, some.getTotals()[1]);
+
+        // Names and aliases of the same municipality get one row
+        CasesMatrixDTO twice = service.getCasesPerDayForMunicipalities(range, 1, List.of("Antwerpen", "anvers", "11002")).block();
+        assertEquals(List.of("Antwerpen"), twice.getRegions());
+        assertEquals(1, twice.getTotals().length);
+
+        // Any order and spelling of the same regions is the same matrix
+        assertEquals(List.of("Antwerpen", "Namen", "atlantis"), service.resolveMunicipalities(List.of("namur", "atlantis", "Antwerpen", "ANVERS")));
+        assertEquals(List.of("*"), service.resolveMunicipalities(List.of("Namen", "*")));
+        assertEquals(List.of("Antwerpen", "Namen"), service.getCasesPerDayForMunicipalities(range, 1, List.of("Namen", "Antwerpen")).block().getRegions());
+    }
+
+    @Test
+    void ageSexCasesAreFilteredAndGroupedFromTheCube() {
+        service.refresh();
+        DateRange range = new DateRange(LocalDate.parse("2020-03-01"), LocalDate.parse("2020-03-03"));
+
+        assertEquals(List.of("F=5", "M=10"), service.getTotalsGroupedBy(range, CasesCube.Dimension.SEX, Map.of())
+                .map(group -> group.getGroup() + "=" + group.getTotal()).collectList().block());
+        assertEquals(List.of("30-39=3", "50-59=1"), service.getTotalsGroupedBy(range, CasesCube.Dimension.AGE_GROUP,
+                        Map.of(CasesCube.Dimension.REGION, "wallonia"))
+                .map(group -> group.getGroup() + "=" + group.getTotal()).collectList().block());
+        assertEquals(List.of(2, 0, 8), service.getCasesPerDay(range, 1, Map.of(CasesCube.Dimension.SEX, "m"))
+                .map(CasesPerDayDTO::getTotal).collectList().block());
+        assertEquals(0, service.getTotal(range, Map.of(CasesCube.Dimension.SEX, "X")).block().getTotal());
+        assertEquals(List.of("20-29", "30-39", "40-49", "50-59"), service.getValues(CasesCube.Dimension.AGE_GROUP).collectList().block());
+    }
+
+    @Test
+    void municipalitiesResolveByFrenchNameAndNisCode() {
+        service.refresh();
+        CasesIndex municipalities = service.getSnapshot().getMunicipalities();
+
+        assertEquals(municipalities.regionId("Antwerpen"), municipalities.regionId("anvers"));
+        assertEquals(municipalities.regionId("Antwerpen"), municipalities.regionId("11002"));
+        assertEquals(-1, municipalities.regionId("Atlantis"));
+        assertEquals(15, municipalities.total("Anvers", LocalDate.parse("2020-03-03")));
+        assertEquals(12, municipalities.total("11002", LocalDate.parse("2020-03-02")));
+        // Every spelling of a region is the same cached response
+        assertEquals("Antwerpen", service.resolveMunicipality("11002"));
+        assertEquals("Antwerpen", service.resolveMunicipality("ANVERS"));
+        assertEquals("atlantis", service.resolveMunicipality("Atlantis"));
+        assertEquals("Namur", service.resolveProvince("namur"));
+        assertEquals("Arrondissement Namen", service.resolveRegion(Datasets.DATE_MUNI, "arrondissements", "arrondissement namen"));
+    }
+
+    @Test
+    void datasetsAreIndexedFromTheirDescriptors() {
+        service.refresh();
+        DateRange range = new DateRange(LocalDate.parse("2020-03-01"), LocalDate.parse("2020-03-02"));
+
+        assertEquals(List.of(4, 4), service.getPerDay(Datasets.HOSP, range, 1).map(CasesPerDayDTO::getTotal).collectList().block());
+        assertEquals(List.of(3, 4), service.getPerDayForRegion(Datasets.HOSP, range, 1, "antwerpen")
+                .map(CasesPerDayDTO::getTotal).collectList().block());
+        assertEquals(106, service.getTotal(Datasets.TESTS, range).block().getTotal());
+        assertEquals(7, service.getTotal(Datasets.TESTS_POSITIVE, range).block().getTotal());
+        assertEquals(List.of("Antwerpen", "Namur"), service.getRegions(Datasets.TESTS).collectList().block());
+        assertEquals(28, service.getSnapshot().getDataset(Datasets.VACC).getIndex().sum("Flanders",
+                LocalDate.parse("2020-03-01"), LocalDate.parse("2020-03-02")));
+    }
+
+    @Test
+    void metricsIncludeTheTestPositivityOfTheLastWeek() {
+        service.refresh();
+        DateRange range = new DateRange(LocalDate.parse("2020-03-01"), LocalDate.parse("2020-03-02"));
+
+        assertEquals(List.of(3f / 50, 7f / 106), service.getMetrics(range).map(CasesMetricsDTO::getPositivity7).collectList().block());
+        assertEquals(List.of(2f / 40, 6f / 90), service.getMetricsForProvince(range, "antwerpen")
+                .map(CasesMetricsDTO::getPositivity7).collectList().block());
+        // Namur has no tests on the second day, the week still has the ones of the first
+        assertEquals(List.of(0.1f, 0.1f), service.getMetricsForProvince(range, "Namur")
+                .map(CasesMetricsDTO::getPositivity7).collectList().block());
+    }
+
+    @Test
+    void municipalitiesRollUpToEveryLevel() {
+        service.refresh();
+        DateRange range = new DateRange(LocalDate.parse("2020-03-01"), LocalDate.parse("2020-03-03"));
+
+        assertEquals(List.of("municipalities", "arrondissements", "provinces", "regions", "country"), Datasets.DATE_MUNI.levelKeys());
+        assertEquals(List.of("Arrondissement Antwerpen", "Arrondissement Namen"),
+                service.getRegions(Datasets.DATE_MUNI, "arrondissements").collectList().block());
+        assertEquals(List.of(0, 12, 15), service.getPerDayForRegion(Datasets.DATE_MUNI, "provinces", range, 1, "antwerpen")
+                .map(CasesPerDayDTO::getTotal).collectList().block());
+        CasesMatrixDTO regions = service.getPerDayForRegions(Datasets.DATE_MUNI, "regions", range, 1, List.of("*")).block();
+        assertEquals(List.of("Flanders", "Wallonia"), regions.getRegions());
+        assertArrayEquals(new int[][]{{0, 12, 15}, {7, 0, 0}}, regions.getTotals());
+        assertEquals(34, service.getTotalForRegion(Datasets.DATE_MUNI, "country", range, "Belgium").block().getTotal());
+        // The province endpoints read the same level
+        assertEquals(service.getTotalForRegion(Datasets.DATE_MUNI, "provinces", range, "Namur").block().getTotal(),
+                service.getTotalForProvince(range, "namur").block().getTotal());
+        assertEquals(List.of("Antwerpen", "Namur"), service.getCasesPerDayForProvinces(range, 1, List.of("*")).block().getRegions());
+
+        dataset = "update";
+        service.refresh();
+
+        DateRange all = new DateRange(LocalDate.parse("2020-03-01"), LocalDate.parse("2020-03-04"));
+        assertEquals(16, service.getTotalForRegion(Datasets.DATE_MUNI, "provinces", all, "Namur").block().getTotal());
+        assertEquals(44, service.getTotalForRegion(Datasets.DATE_MUNI, "country", all, "Belgium").block().getTotal());
+        assertEquals(0, service.getTotalForRegion(Datasets.DATE_MUNI, "country", all, "Nowhere").block().getTotal());
+    }
+
+    @Test
+    void unmodifiedDatasetsKeepTheSnapshot() {
+        service.refresh();
+        StatsSnapshot first = service.getSnapshot();
+
+        service.refresh();
+
+        // One conditional request per file, the tests file holds two datasets
+        assertEquals(5, notModified.get());
+        assertSame(first, service.getSnapshot());
+    }
+
+    @Test
+    void modifiedDatasetsAreIndexedFromTheFirstRevisedDay() {
+        service.refresh();
+        dataset = "update";
+
+        service.refresh();
+
+        StatsSnapshot snapshot = service.getSnapshot();
+        assertEquals(2, snapshot.getVersion());
+        // Revisions of old days are indexed too
+        assertEquals(100, snapshot.getAgeSex().total("Antwerpen", LocalDate.parse("2020-03-01")));
+        // Revised and appended days
+        assertEquals(7, snapshot.getAgeSex().total("Antwerpen", LocalDate.parse("2020-03-03")));
+        assertEquals(6, snapshot.getAgeSex().total("Liège", LocalDate.parse("2020-03-04")));
+        assertEquals(16, snapshot.getMunicipalities().total("Antwerpen", LocalDate.parse("2020-03-03")));
+        assertEquals(9, snapshot.getMunicipalities().total("Namen", LocalDate.parse("2020-03-04")));
+        assertEquals(Map.of("Antwerpen", 111, "Liège", 6, "Namur", 4), snapshot.getAgeSexCube().sumBy(CasesCube.Dimension.PROVINCE,
+                Map.of(), LocalDate.parse("2020-03-01"), LocalDate.parse("2020-03-04")));
+    }
+
+    @Test
+    void restartsServeTheStoredSnapshotWhenTheDownloadFails(@TempDir Path dir) {
+        SnapshotStore store = new SnapshotStore(dir.resolve("snapshot.bin").toString(), false);
+        String baseUrl = "http://localhost:" + server.getAddress().getPort() + "/Data";
+        service(baseUrl, store).refresh();
+        server.stop(0);
+
+        CachedStatsService restarted = service(baseUrl, store);
+        restarted.preloadCache();
+
+        StatsSnapshot snapshot = restarted.getSnapshot();
+        assertEquals(1, snapshot.getVersion());
+        assertEquals(8, snapshot.getAgeSex().total(LocalDate.parse("2020-03-03")));
+        assertEquals(15, snapshot.getMunicipalities().total("Anvers", LocalDate.parse("2020-03-03")));
+        assertEquals(List.of("Antwerpen", "Namen"), restarted.getMunicipalities(null).collectList().block());
+    }
+
+    @Test
+    void followersLoadTheSnapshotsOfTheLeader(@TempDir Path dir) {
+        String path = dir.resolve("snapshot.bin").toString();
+        String baseUrl = "http://localhost:" + server.getAddress().getPort() + "/Data";
+        CachedStatsService leader = service(baseUrl, new SnapshotStore(path, true));
+        CachedStatsService follower = service(baseUrl, new SnapshotStore(path, true));
+
+        leader.refresh();
+        int leaderRequests = requests.get();
+        follower.refresh();
+
+        assertEquals(leaderRequests, requests.get());
+        assertEquals(1, follower.getSnapshot().getVersion());
+        assertEquals(15, follower.getSnapshot().getMunicipalities().total("Anvers", LocalDate.parse("2020-03-03")));
+
+        dataset = "update";
+        leader.refresh();
+        follower.follow();
+
+        assertEquals(2, follower.getSnapshot().getVersion());
+        assertEquals(16, follower.getSnapshot().getMunicipalities().total("Antwerpen", LocalDate.parse("2020-03-03")));
+    }
+}
@@ -0,0 +1,59 @@
+package be.covid.stats.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CasesMetricsTest {
+    private static final LocalDate FIRST = LocalDate.of(2021, 3, 1);
+
+    private final PopulationTable populationTable = PopulationTable.read(new ByteArrayInputStream(
+            "# test\nGent;200000\n".getBytes(StandardCharsets.UTF_8)));
+
+    @Test
+    void computesSlidingWindowsPerRegion() {
+        CasesIndex.Builder builder = CasesIndex.builder();
+        int gent = builder.regions().idOf("Gent");
+        int brugge = builder.regions().idOf("Brugge");
+        int firstDay = (int) FIRST.toEpochDay();
+        // Gent has 10 cases a day for 2 weeks, then 20, Brugge 1 a day
+        for (int day = 0; day < 21; day++) {
+            builder.add(gent, firstDay + day, day < 14 ? 10 : 20);
+            builder.add(brugge, firstDay + day, 1);
+        }
+        CasesIndex index = builder.build();
+        CasesMetrics metrics = new CasesMetrics(index, populationTable, 400_000);
+
+        CasesMetrics.Series series = metrics.region(index.regionId("gent"));
+        assertEquals(10f / 7, series.average(FIRST), 1e-6);
+        assertEquals(10f, series.average(FIRST.plusDays(13)), 1e-6);
+        assertEquals(70f, series.incidence(FIRST.plusDays(13)), 1e-6);
+        assertEquals(0f, series.growth(FIRST.plusDays(13)), 1e-6);
+        assertEquals(20f, series.average(FIRST.plusDays(20)), 1e-6);
+        assertEquals(105f, series.incidence(FIRST.plusDays(20)), 1e-6);
+        assertEquals(1f, series.growth(FIRST.plusDays(20)), 1e-6);
+
+        assertEquals(21f, metrics.total().average(FIRST.plusDays(20)), 1e-6);
+        assertEquals(56f, metrics.total().incidence(FIRST.plusDays(20)), 1e-6);
+    }
+
+    @Test
+    void valuesWithoutDenominatorOrOutsideTheIndexAreNaN() {
+        CasesIndex.Builder builder = CasesIndex.builder();
+        int brugge = builder.regions().idOf("Brugge");
+        builder.add(brugge, (int) FIRST.toEpochDay(), 5);
+        CasesIndex index = builder.build();
+        CasesMetrics metrics = new CasesMetrics(index, populationTable, 0);
+
+        CasesMetrics.Series series = metrics.region(brugge);
+        assertTrue(Float.isNaN(series.incidence(FIRST)));
+        assertTrue(Float.isNaN(series.growth(FIRST)));
+        assertTrue(Float.isNaN(series.average(FIRST.minusDays(1))));
+        assertTrue(Float.isNaN(metrics.region(-1).average(FIRST)));
+    }
+}
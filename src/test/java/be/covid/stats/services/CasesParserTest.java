@@ -0,0 +1,109 @@
+package be.covid.stats.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CasesParserTest {
+    private final CasesParser parser = new CasesParser("DATE", "CASES", "TX_DESCR_NL", "NIS5");
+
+    @Test
+    void parallelAggregationSumsTheSameRecords(@TempDir Path dir) throws IOException {
+        File file = Files.writeString(dir.resolve("cases.json"), json()).toFile();
+
+        assertEquals(1000, parse(file).size());
+        assertEquals(sums(parse(file)), aggregate(file, new ForkJoinPool(1)));
+        assertEquals(sums(parse(file)), aggregate(file, new ForkJoinPool(4)));
+    }
+
+    @Test
+    void compressedFilesAreDecompressedWhileParsed(@TempDir Path dir) throws IOException {
+        File plain = Files.writeString(dir.resolve("cases.json"), json()).toFile();
+        File compressed = dir.resolve("cases.json.gz").toFile();
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed))) {
+            out.write(json().getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals(parse(plain), parse(compressed));
+        assertEquals(sums(parse(plain)), aggregate(compressed, new ForkJoinPool(4)));
+    }
+
+    @Test
+    void impossibleDatesAreSkipped(@TempDir Path dir) throws IOException {
+        File file = Files.writeString(dir.resolve("cases.json"), "[{\"DATE\":\"2021-02-30\",\"TX_DESCR_NL\":\"Antwerpen\",\"NIS5\":\"11002\",\"CASES\":3},"
+                + "{\"DATE\":\"2020-02-29\",\"TX_DESCR_NL\":\"Antwerpen\",\"NIS5\":\"11002\",\"CASES\":4}]").toFile();
+
+        List<String> records = parse(file);
+
+        assertEquals(List.of(LocalDate.parse("2020-02-29").toEpochDay() + " Antwerpen 11002 4"), records);
+    }
+
+    @Test
+    void countsBeyondTheIntRangeFailTheFile(@TempDir Path dir) throws IOException {
+        File number = Files.writeString(dir.resolve("number.json"), "[{\"DATE\":\"2020-03-01\",\"CASES\":4294967297}]").toFile();
+        File string = Files.writeString(dir.resolve("string.json"), "[{\"DATE\":\"2020-03-01\",\"CASES\":\"4294967297\"}]").toFile();
+
+        assertThrows(IOException.class, () -> parse(number));
+        assertThrows(IOException.class, () -> parse(string));
+    }
+
+    private static String json() {
+        StringBuilder json = new StringBuilder("[\n");
+        for (int i = 0; i < 1000; i++) {
+            if (i > 0) json.append(",\n");
+            json.append("{\"NIS5\":\"").append(10000 + i % 7).append("\",\"DATE\":\"2020-03-").append(String.format("%02d", 1 + i % 28))
+                    .append("\",\"TX_DESCR_NL\":\"Gemeente ").append(i % 7).append("\",\"CASES\":\"").append(i % 5 == 0 ? "<5" : i).append("\"}");
+        }
+        return json.append("\n]\n").toString();
+    }
+
+    // Every record in file order
+    private List<String> parse(File file) throws IOException {
+        List<String> records = new ArrayList<>();
+        NameDictionary[] dictionaries = {new NameDictionary(), new NameDictionary()};
+        parser.parse(file, dictionaries, (day, dimensions, cases) -> records.add(key(dictionaries, day, dimensions) + " " + cases));
+        return records;
+    }
+
+    // The sums per day and dimensions of the records, in chunks of at least 256 bytes. Days without cases are left out.
+    private Map<String, Integer> aggregate(File file, ForkJoinPool pool) throws IOException {
+        Map<String, Integer> sums = new TreeMap<>();
+        NameDictionary[] dictionaries = {new NameDictionary(), new NameDictionary()};
+        parser.aggregate(file, pool, 256, dictionaries, (dimensions, firstDay, cases) -> {
+            for (int day = 0; day < cases.length; day++) {
+                if (cases[day] != 0) sums.merge(key(dictionaries, firstDay + day, dimensions), cases[day], Integer::sum);
+            }
+        });
+        return sums;
+    }
+
+    private static Map<String, Integer> sums(List<String> records) {
+        Map<String, Integer> sums = new TreeMap<>();
+        for (String record : records) {
+            int cases = Integer.parseInt(record.substring(record.lastIndexOf(' ') + 1));
+            if (cases != 0) sums.merge(record.substring(0, record.lastIndexOf(' ')), cases, Integer::sum);
+        }
+        return sums;
+    }
+
+    private static String key(NameDictionary[] dictionaries, int day, int[] dimensions) {
+        return day + " " + dictionaries[0].nameOf(dimensions[0]) + " " + dictionaries[1].nameOf(dimensions[1]);
+    }
+}
@@ -0,0 +1,96 @@
+package be.covid.stats.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class DatasetIndexerTest {
+    private final DatasetIndexer indexer = new DatasetIndexer(new SimpleMeterRegistry());
+
+    @Test
+    void recordsWithoutAMunicipalityCountAtTheLevelsTheyName(@TempDir Path dir) throws IOException {
+        Path file = Files.writeString(dir.resolve("muni.json"), "[\n"
+                + record("Antwerpen", "2020-03-01", "Antwerpen", "Flanders", "4") + ",\n"
+                + record("Namen", "2020-03-01", "Namur", "Wallonia", "7") + ",\n"
+                + record(null, "2020-03-01", "Namur", "Wallonia", "3") + ",\n"
+                + record(null, "2020-03-02", "Antwerpen", "Flanders", "5") + ",\n"
+                + record(null, "2020-03-02", null, null, "2") + ",\n"
+                + record("Antwerpen", "2020-03-03", "Antwerpen", "Flanders", "12") + "\n"
+                + "]");
+
+        DatasetIndex index = indexer.index(Datasets.DATE_MUNI, file, DatasetIndex.EMPTY);
+
+        assertCountryTotals(index, "2020-03-01", "2020-03-02", "2020-03-03");
+        assertEquals(10, index.getLevel("provinces").total("Namur", LocalDate.parse("2020-03-01")));
+        assertEquals(5, index.getLevel("regions").total("Flanders", LocalDate.parse("2020-03-02")));
+        assertEquals(0, index.getIndex().total("Antwerpen", LocalDate.parse("2020-03-02")));
+
+        // Rebuilt from the first revised day, the days before it are kept
+        Files.writeString(file, "[\n"
+                + record("Antwerpen", "2020-03-01", "Antwerpen", "Flanders", "4") + ",\n"
+                + record("Namen", "2020-03-01", "Namur", "Wallonia", "7") + ",\n"
+                + record(null, "2020-03-01", "Namur", "Wallonia", "3") + ",\n"
+                + record(null, "2020-03-02", "Namur", "Wallonia", "6") + ",\n"
+                + record("Namen", "2020-03-04", "Namur", "Wallonia", "9") + "\n"
+                + "]");
+
+        DatasetIndex updated = indexer.index(Datasets.DATE_MUNI, file, index);
+
+        assertCountryTotals(updated, "2020-03-01", "2020-03-02", "2020-03-03", "2020-03-04");
+        assertEquals(10, updated.getLevel("provinces").total("Namur", LocalDate.parse("2020-03-01")));
+        assertEquals(6, updated.getLevel("provinces").total("Namur", LocalDate.parse("2020-03-02")));
+        assertEquals(0, updated.getLevel("regions").total("Flanders", LocalDate.parse("2020-03-02")));
+        assertEquals(0, updated.getIndex().total("Antwerpen", LocalDate.parse("2020-03-03")));
+    }
+
+    @Test
+    void revisionsOfOldDaysAreIndexed(@TempDir Path dir) throws IOException {
+        Path file = Files.writeString(dir.resolve("muni.json"), "[\n"
+                + record("Antwerpen", "2020-01-01", "Antwerpen", "Flanders", "4") + ",\n"
+                + record("Namen", "2020-03-01", "Namur", "Wallonia", "7") + "\n"
+                + "]");
+        DatasetIndex index = indexer.index(Datasets.DATE_MUNI, file, DatasetIndex.EMPTY);
+
+        // The same records in another order are the same file
+        Files.writeString(file, "[\n"
+                + record("Namen", "2020-03-01", "Namur", "Wallonia", "7") + ",\n"
+                + record("Antwerpen", "2020-01-01", "Antwerpen", "Flanders", "4") + "\n"
+                + "]");
+        assertSame(index, indexer.index(Datasets.DATE_MUNI, file, index));
+
+        Files.writeString(file, "[\n"
+                + record("Antwerpen", "2020-01-01", "Antwerpen", "Flanders", "5") + ",\n"
+                + record("Namen", "2020-03-01", "Namur", "Wallonia", "7") + "\n"
+                + "]");
+        DatasetIndex revised = indexer.index(Datasets.DATE_MUNI, file, index);
+
+        assertEquals(5, revised.getIndex().total("Antwerpen", LocalDate.parse("2020-01-01")));
+        assertEquals(5, revised.getLevel("provinces").total("Antwerpen", LocalDate.parse("2020-01-01")));
+        assertEquals(7, revised.getIndex().total("Namen", LocalDate.parse("2020-03-01")));
+    }
+
+    private static void assertCountryTotals(DatasetIndex index, String... dates) {
+        CasesIndex country = index.getLevel("country");
+        for (String date : dates) {
+            LocalDate day = LocalDate.parse(date);
+            assertEquals(index.getIndex().total(day), country.total("Belgium", day), date);
+            assertEquals(index.getIndex().total(day), country.total(day), date);
+        }
+    }
+
+    private static String record(String municipality, String date, String province, String region, String cases) {
+        return "{\"DATE\":\"" + date + "\""
+                + (municipality == null ? "" : ",\"TX_DESCR_NL\":\"" + municipality + "\"")
+                + (province == null ? "" : ",\"PROVINCE\":\"" + province + "\"")
+                + (region == null ? "" : ",\"REGION\":\"" + region + "\"")
+                + ",\"CASES\":\"" + cases + "\"}";
+    }
+}
@@ -0,0 +1,38 @@
+package be.covid.stats.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NameSearchIndexTest {
+    private final NameSearchIndex index = new NameSearchIndex(
+            List.of("Sint-Niklaas", "Niel", "Nieuwpoort", "Liège", "Anderlecht", "Nil-Saint-Vincent-Saint-Martin"));
+
+    @Test
+    void ranksExactThenPrefixThenWordThenInfix() {
+        assertEquals(List.of("Niel", "Nieuwpoort", "Nil-Saint-Vincent-Saint-Martin", "Sint-Niklaas"), index.search("ni", 10));
+        assertEquals(List.of("Niel", "Nieuwpoort", "Nil-Saint-Vincent-Saint-Martin", "Sint-Niklaas", "Anderlecht"),
+                index.search("n", 10));
+        assertEquals(List.of("Niel"), index.search("NIEL", 1));
+    }
+
+    @Test
+    void ignoresAccentsAndCase() {
+        assertEquals(List.of("Liège"), index.search("LIEGE", 10));
+    }
+
+    @Test
+    void blankQueriesReturnAllNamesUpToTheLimit() {
+        assertEquals(6, index.search(null, 10).size());
+        assertEquals(List.of("Anderlecht", "Liège"), index.search("*", 2));
+    }
+
+    @Test
+    void limitsBelowOneAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> index.search("*", 0));
+        assertThrows(IllegalArgumentException.class, () -> index.search("ni", -1));
+    }
+}